@@ -30,6 +30,17 @@ android {
         sourceCompatibility = JavaVersion.VERSION_1_8
         targetCompatibility = JavaVersion.VERSION_1_8
     }
+    testOptions {
+        unitTests {
+            isIncludeAndroidResources = true
+            all {
+                // The UI performance tests hold up to 100k movies
+                it.maxHeapSize = "2g"
+                // -DuiBaseline.record=true writes new baselines instead of checking them
+                it.systemProperty("uiBaseline.record", System.getProperty("uiBaseline.record") ?: "false")
+            }
+        }
+    }
 }
 
 dependencies {
@@ -42,6 +53,7 @@ dependencies {
     testImplementation("junit:junit:4.13.2")
     testImplementation("org.mockito:mockito-core:5.7.0")
     testImplementation("org.mockito:mockito-inline:5.2.0")
+    testImplementation("org.robolectric:robolectric:4.14.1")
     androidTestImplementation("androidx.test.ext:junit:1.2.1")
     androidTestImplementation("androidx.test.espresso:espresso-core:3.6.1")
 }
@@ -0,0 +1,94 @@
+package com.example.androidcicd;
+
+import static org.junit.Assert.*;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.androidcicd.movie.Movie;
+import com.example.androidcicd.movie.MovieFilter;
+import com.example.androidcicd.movie.MovieProvider;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+public class MovieFilterTest {
+    private CollectionReference moviesRef;
+    private ListenerRegistration registration;
+
+    @BeforeClass
+    public static void setup() {
+        try {
+            FirebaseFirestore.getInstance().useEmulator("10.0.2.2", 8080);
+        } catch (IllegalStateException e) {
+            // Already pointed at the emulator by another test class
+        }
+    }
+
+    @Before
+    public void seedDatabase() throws Exception {
+        moviesRef = FirebaseFirestore.getInstance().collection("movies");
+        Movie[] movies = {
+                new Movie("Pulp Fiction", "Drama", 1994),
+                new Movie("Fight Club", "Drama", 1999),
+                new Movie("Oppenheimer", "Drama", 2023),
+                new Movie("Barbie", "Comedy", 2023)
+        };
+        for (Movie movie : movies) {
+            DocumentReference docRef = moviesRef.document();
+            movie.setId(docRef.getId());
+            Tasks.await(docRef.set(movie), 5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void filterShouldOnlyReturnMatchingMovies() throws Exception {
+        MovieProvider movieProvider = MovieProvider.getInstance(FirebaseFirestore.getInstance());
+        CountDownLatch latch = new CountDownLatch(1);
+        List<String> titles = new ArrayList<>();
+
+        registration = movieProvider.listenForUpdates(new MovieFilter("Drama", 1990, 1999), new MovieProvider.DataStatus() {
+            @Override
+            public void onDataUpdated() {
+                titles.clear();
+                for (Movie movie : movieProvider.getMovies())
+                    titles.add(movie.getTitle());
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(String error) {
+                fail(error);
+            }
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(2, titles.size());
+        assertTrue(titles.contains("Pulp Fiction"));
+        assertTrue(titles.contains("Fight Club"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (registration != null)
+            registration.remove();
+        QuerySnapshot snapshot = Tasks.await(moviesRef.get(), 5, TimeUnit.SECONDS);
+        for (DocumentSnapshot document : snapshot.getDocuments())
+            Tasks.await(document.getReference().delete(), 5, TimeUnit.SECONDS);
+    }
+}
@@ -8,24 +8,33 @@ import android.widget.ListView;
 
 import androidx.activity.EdgeToEdge;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
 import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 
+import com.example.androidcicd.movie.CatalogSummary;
 import com.example.androidcicd.movie.Movie;
 import com.example.androidcicd.movie.MovieArrayAdapter;
 import com.example.androidcicd.movie.MovieDeleteDialogFragment;
 import com.example.androidcicd.movie.MovieDialogFragment;
 import com.example.androidcicd.movie.MovieProvider;
+import com.example.androidcicd.movie.MovieSectionIndex;
+import com.example.androidcicd.movie.MovieUpdateConflater;
+import com.example.androidcicd.movie.MovieViews;
+import com.example.androidcicd.movie.MutationLog;
+import com.example.androidcicd.movie.MutationQueue;
+import com.example.androidcicd.movie.SyncCheckpoint;
 import com.google.firebase.firestore.FirebaseFirestore;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
 
 public class MainActivity extends AppCompatActivity {
     private Button addMovieButton;
     private ListView movieListView;
     private MovieProvider movieProvider;
-    private ArrayList<Movie> movieArrayList;
+    private MovieSectionIndex movieSectionIndex;
     private ArrayAdapter<Movie> movieArrayAdapter;
 
     @Override
@@ -45,17 +54,44 @@ public class MainActivity extends AppCompatActivity {
         movieListView = findViewById(R.id.listviewMovies);
 
         // Get MovieProvider instance
-        movieProvider = MovieProvider.getInstance(FirebaseFirestore.getInstance());
-        movieArrayList = new ArrayList<>();
-        movieArrayAdapter = new MovieArrayAdapter(this, movieArrayList);
+        movieProvider = MovieProvider.getInstance();
+        if (movieProvider.getMutationQueue() == null) {
+            try {
+                MutationLog mutationLog = new MutationLog(new File(getFilesDir(), "movie-mutations.log"));
+                MutationQueue mutationQueue = new MutationQueue(mutationLog, movieProvider::commitBatch);
+                // A write the backend refuses is dropped rather than retried forever
+                mutationQueue.setRejectionListener((mutation, error) ->
+                        Log.e("Movie Rejected", mutation.getMovieId() + ": " + error));
+                movieProvider.setMutationQueue(mutationQueue);
+            } catch (IOException e) {
+                // Fall back to writing directly
+                Log.e("Mutation Queue Error", e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+        }
+        // Only read from and written to once it has been rebuilt; until then it costs a launch
+        // one query of the summary collection
+        if (movieProvider.getCatalogSummary() == null)
+            movieProvider.setCatalogSummary(new CatalogSummary(FirebaseFirestore.getInstance()));
+        if (movieProvider.getSyncCheckpoint() == null) {
+            try {
+                movieProvider.setSyncCheckpoint(new SyncCheckpoint(new File(getFilesDir(), "movie-sync.checkpoint")));
+            } catch (IOException e) {
+                // Fall back to reading the whole collection
+                Log.e("Sync Checkpoint Error", e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+        }
+        movieSectionIndex = new MovieSectionIndex(MovieSectionIndex.Mode.TITLE);
+        movieArrayAdapter = new MovieArrayAdapter(this, movieSectionIndex);
         movieListView.setAdapter(movieArrayAdapter);
+        movieListView.setFastScrollEnabled(true);
 
-        // Listen for updates in the movie list
-        movieProvider.listenForUpdates(new MovieProvider.DataStatus() {
+        // Listen for updates in the movie list, read from the catalog summary when it has been
+        // built, refreshing at most once per frame
+        movieProvider.listenForUpdates(new MovieUpdateConflater(movieProvider, new MovieUpdateConflater.Listener() {
             @Override
-            public void onDataUpdated() {
-                movieArrayList.clear();
-                movieArrayList.addAll(movieProvider.getMovies());
+            public void onViewsUpdated(MovieViews views) {
+                // Only the changed movies move, the rest of the list stays sorted in place
+                movieSectionIndex.apply(views.getChanges(), movieProvider::getMovie);
                 movieArrayAdapter.notifyDataSetChanged();
             }
 
@@ -63,6 +99,19 @@ public class MainActivity extends AppCompatActivity {
             public void onError(String error) {
                 Log.e("Movie Update Error", error);
             }
+        }, ContextCompat.getMainExecutor(this)));
+
+        // Clean up old delete markers now and then
+        movieProvider.compactTombstones(new MovieProvider.DataStatus() {
+            @Override
+            public void onDataUpdated() {
+                Log.i("Tombstone Compaction", "Compacted deleted movies");
+            }
+
+            @Override
+            public void onError(String error) {
+                Log.e("Tombstone Compaction Error", error);
+            }
         });
 
         // Set listener for adding movies
@@ -0,0 +1,25 @@
+package com.example.androidcicd.movie;
+
+import java.util.Random;
+
+// Exponential backoff with jitter: the delay for an attempt is picked uniformly from the
+// upper half of min(maxDelay, baseDelay * 2^attempt) so retrying clients spread out.
+public class Backoff {
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final Random random;
+
+    public Backoff(long baseDelayMillis, long maxDelayMillis, Random random) {
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.random = random;
+    }
+
+    public long delayMillis(int attempt) {
+        long ceiling = maxDelayMillis;
+        if (attempt < 62 && baseDelayMillis <= maxDelayMillis >> attempt)
+            ceiling = baseDelayMillis << attempt;
+        long half = ceiling / 2;
+        return half + (long) (random.nextDouble() * (ceiling - half));
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.androidcicd.movie;
+
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A denormalized copy of the whole catalog in a few chunk documents, catalogSummary/chunk-{n}.
+// Each maps movie id to [title, genre, year], plus the poster URL when there is one, which is
+// everything a write sends back. Movie writes update their chunk in the same batch, and stamp it
+// with the same server time, so a cold start can read the full list in CHUNK_COUNT reads and
+// then only fetch movies written after the newest stamp. By Firestore's size rules an entry
+// takes about 70 bytes, or 130 with a poster URL, so a chunk reaches the 1 MiB document limit
+// at around 8k movies and the summary holds about 130k before CHUNK_COUNT has to grow.
+//
+// The chunks only hold every movie once rebuild has run, which writes the catalogSummary/complete
+// marker last. Until a device has seen the marker its writes leave the summary alone, so an
+// unbuilt summary costs a launch one read of an empty collection and costs writes nothing.
+// Clients already running when it is rebuilt only start writing to it once they have loaded
+// it again, so rebuild while the catalog is not being edited.
+public class CatalogSummary {
+    public static final String COLLECTION = "catalogSummary";
+    public static final int CHUNK_COUNT = 16;
+    private static final String ENTRIES = "entries";
+    private static final String UPDATED_AT = "updatedAt";
+    private static final String MARKER = "complete";
+
+    public interface Listener {
+        // Every movie in the summary, and the server time of the newest write it includes
+        void onLoaded(List<MovieChange> movies, long since);
+        // The summary has not been built, so it cannot stand in for the movies collection
+        void onMissing();
+        void onError(String error);
+    }
+
+    private final CollectionReference collection;
+    private volatile boolean built;
+
+    public CatalogSummary(FirebaseFirestore firestore) {
+        collection = firestore.collection(COLLECTION);
+    }
+
+    // Whether this device has seen the marker, and so keeps the chunks up to date
+    public boolean isBuilt() {
+        return built;
+    }
+
+    static int chunkFor(String id) {
+        return Math.floorMod(id.hashCode(), CHUNK_COUNT);
+    }
+
+    private DocumentReference chunk(int chunk) {
+        return collection.document("chunk-" + chunk);
+    }
+
+    static List<Object> encode(String title, String genre, int year, String posterUrl) {
+        if (posterUrl == null)
+            return Arrays.asList(title, genre, (long) year);
+        return Arrays.asList(title, genre, (long) year, posterUrl);
+    }
+
+    static MovieChange decode(MovieChange.Type type, String id, Object entry) {
+        List<?> fields = (List<?>) entry;
+        Number year = (Number) fields.get(2);
+        return new MovieChange(type, id, (String) fields.get(0), (String) fields.get(1),
+                year != null ? year.intValue() : 0, fields.size() > 3 ? (String) fields.get(3) : null);
+    }
+
+    public void put(WriteBatch batch, Movie movie) {
+        write(batch, Collections.singletonMap(movie.getId(),
+                encode(movie.getTitle(), movie.getGenre(), movie.getYear(), movie.getPosterUrl())));
+    }
+
+    public void remove(WriteBatch batch, String id) {
+        write(batch, Collections.singletonMap(id, FieldValue.delete()));
+    }
+
+    // Adds one write per chunk touched by mutations, so at most CHUNK_COUNT writes
+    public void apply(WriteBatch batch, List<MovieMutation> mutations) {
+        Map<String, Object> entries = new HashMap<>();
+        for (MovieMutation mutation : mutations) {
+            entries.put(mutation.getMovieId(), mutation.getType() == MovieMutation.Type.SET
+                    ? encode(mutation.getTitle(), mutation.getGenre(), mutation.getYear(), mutation.getPosterUrl())
+                    : FieldValue.delete());
+        }
+        write(batch, entries);
+    }
+
+    // Merged so other entries in the chunk are left alone. A FieldValue.delete() entry removes the movie.
+    private void write(WriteBatch batch, Map<String, Object> entries) {
+        Map<Integer, Map<String, Object>> byChunk = new HashMap<>();
+        for (Map.Entry<String, Object> entry : entries.entrySet()) {
+            int chunk = chunkFor(entry.getKey());
+            Map<String, Object> chunkEntries = byChunk.get(chunk);
+            if (chunkEntries == null) {
+                chunkEntries = new HashMap<>();
+                byChunk.put(chunk, chunkEntries);
+            }
+            chunkEntries.put(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Integer, Map<String, Object>> chunkEntries : byChunk.entrySet())
+            batch.set(chunk(chunkEntries.getKey()), chunkData(chunkEntries.getValue()), SetOptions.merge());
+    }
+
+    // Stamped with the batch's commit time, the same time the movie documents get
+    private static Map<String, Object> chunkData(Map<String, Object> entries) {
+        Map<String, Object> data = new HashMap<>();
+        data.put(ENTRIES, entries);
+        data.put(UPDATED_AT, FieldValue.serverTimestamp());
+        return data;
+    }
+
+    // Reads the whole summary once. Every movie written after it has a later updatedAt than the
+    // newest chunk stamp, so the caller can catch up with a query on that.
+    public void load(Listener listener) {
+        collection.get()
+                .addOnSuccessListener(result -> {
+                    List<MovieChange> movies = new ArrayList<>();
+                    long since = 0;
+                    boolean complete = false;
+                    for (DocumentSnapshot document : result.getDocuments()) {
+                        // Still null for a write of our own the server has not confirmed
+                        Date updatedAt = document.getDate(UPDATED_AT);
+                        if (updatedAt != null)
+                            since = Math.max(since, updatedAt.getTime());
+                        if (MARKER.equals(document.getId())) {
+                            complete = true;
+                            continue;
+                        }
+                        for (Map.Entry<String, Object> entry : entries(document).entrySet())
+                            movies.add(decode(MovieChange.Type.ADDED, entry.getKey(), entry.getValue()));
+                    }
+                    // Offline, the summary comes from the cache. Once it is older than the tombstone
+                    // retention period, deletes made since may have left no trace to catch up from.
+                    boolean expired = result.getMetadata().isFromCache()
+                            && since < System.currentTimeMillis() - MovieProvider.TOMBSTONE_RETENTION_MILLIS;
+                    built = complete;
+                    if (complete && !expired)
+                        listener.onLoaded(movies, since);
+                    else
+                        listener.onMissing();
+                })
+                .addOnFailureListener(e -> listener.onError("Failed to read catalog summary: " + e.getMessage()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> entries(DocumentSnapshot document) {
+        Object entries = document.get(ENTRIES);
+        return entries instanceof Map ? (Map<String, Object>) entries : Collections.emptyMap();
+    }
+
+    // Writes the summary from scratch out of every movie document, then the marker that lets
+    // load use it. Needed once for a catalog that existed before the summary; after that the
+    // writes keep it up to date. A movie written by another device between the read and the
+    // commit is lost from the summary and, being older than the new stamps, from the catch up
+    // query too, so run it while the catalog is not being edited. Each chunk is written on its
+    // own, as all of them at once would pass the 10 MiB commit limit well before the chunks
+    // are full, and the marker only once every chunk is in.
+    public void rebuild(Query allMovies, MovieProvider.DataStatus dataStatus) {
+        allMovies.get()
+                .addOnSuccessListener(result -> {
+                    List<Map<String, Object>> chunks = new ArrayList<>();
+                    for (int i = 0; i < CHUNK_COUNT; i++)
+                        chunks.add(new HashMap<>());
+                    for (DocumentSnapshot document : result.getDocuments()) {
+                        if (Boolean.TRUE.equals(document.getBoolean("deleted")))
+                            continue;
+                        Long year = document.getLong("year");
+                        chunks.get(chunkFor(document.getId())).put(document.getId(), encode(document.getString("title"),
+                                document.getString("genre"), year != null ? year.intValue() : 0, document.getString("posterUrl")));
+                    }
+                    writeChunk(chunks, 0, dataStatus);
+                })
+                .addOnFailureListener(e -> dataStatus.onError("Failed to read movies: " + e.getMessage()));
+    }
+
+    private void writeChunk(List<Map<String, Object>> chunks, int chunk, MovieProvider.DataStatus dataStatus) {
+        if (chunk == CHUNK_COUNT) {
+            collection.document(MARKER).set(Collections.singletonMap(UPDATED_AT, FieldValue.serverTimestamp()))
+                    .addOnSuccessListener(aVoid -> {
+                        built = true;
+                        dataStatus.onDataUpdated();
+                    })
+                    .addOnFailureListener(e -> dataStatus.onError("Failed to write catalog summary: " + e.getMessage()));
+            return;
+        }
+        chunk(chunk).set(chunkData(chunks.get(chunk)))
+                .addOnSuccessListener(aVoid -> writeChunk(chunks, chunk + 1, dataStatus))
+                .addOnFailureListener(e -> dataStatus.onError("Failed to write catalog summary: " + e.getMessage()));
+    }
+}
@@ -2,7 +2,10 @@ package com.example.androidcicd.movie;
 
 import androidx.annotation.Nullable;
 
+import com.google.firebase.firestore.ServerTimestamp;
+
 import java.io.Serializable;
+import java.util.Date;
 
 // Movie object
 public class Movie implements Serializable {
@@ -12,6 +15,12 @@ public class Movie implements Serializable {
     private String title;
     private String genre;
     private int year;
+    private String posterUrl;
+    // Set by the server on every write, used for delta sync
+    @ServerTimestamp
+    private Date updatedAt;
+    // Deleted movies are kept as tombstones until compacted so other clients see the delete
+    private boolean deleted;
 
     public Movie() {}
 
@@ -22,6 +31,16 @@ public class Movie implements Serializable {
         this.year = year;
     }
 
+    // A separate instance with the same fields, for handing to another thread
+    public Movie copy() {
+        Movie copy = new Movie(title, genre, year);
+        copy.id = id;
+        copy.posterUrl = posterUrl;
+        copy.updatedAt = updatedAt;
+        copy.deleted = deleted;
+        return copy;
+    }
+
     // getters and setters
     public String getGenre() {
         return genre;
@@ -62,4 +81,28 @@ public class Movie implements Serializable {
     public void setTitle(String title) {
         this.title = title;
     }
+
+    public String getPosterUrl() {
+        return posterUrl;
+    }
+
+    public void setPosterUrl(String posterUrl) {
+        this.posterUrl = posterUrl;
+    }
+
+    public Date getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Date updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    public void setDeleted(boolean deleted) {
+        this.deleted = deleted;
+    }
 }
@@ -5,18 +5,22 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
+import android.widget.ImageView;
+import android.widget.SectionIndexer;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.example.androidcicd.R;
+import com.example.androidcicd.poster.PosterLoader;
 
 import java.util.ArrayList;
 
-public class MovieArrayAdapter extends ArrayAdapter<Movie> {
+public class MovieArrayAdapter extends ArrayAdapter<Movie> implements SectionIndexer {
     private ArrayList<Movie> movies;
     private Context context;
+    private MovieSectionIndex sectionIndex;
 
     public MovieArrayAdapter(Context context, ArrayList<Movie> movies){
         super(context, 0, movies);
@@ -24,6 +28,27 @@ public class MovieArrayAdapter extends ArrayAdapter<Movie> {
         this.context = context;
     }
 
+    // Shows the index's sorted list, with its sections available to fast scroll
+    public MovieArrayAdapter(Context context, MovieSectionIndex sectionIndex){
+        this(context, sectionIndex.getMovies());
+        this.sectionIndex = sectionIndex;
+    }
+
+    @Override
+    public Object[] getSections() {
+        return sectionIndex != null ? sectionIndex.getSections() : new Object[0];
+    }
+
+    @Override
+    public int getPositionForSection(int sectionIndex) {
+        return this.sectionIndex != null ? this.sectionIndex.getPositionForSection(sectionIndex) : 0;
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        return sectionIndex != null ? sectionIndex.getSectionForPosition(position) : 0;
+    }
+
     @NonNull
     public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent){
         View view = convertView;
@@ -35,10 +60,12 @@ public class MovieArrayAdapter extends ArrayAdapter<Movie> {
         TextView movieName = view.findViewById(R.id.textMovieName);
         TextView movieGenre = view.findViewById(R.id.textMovieGenre);
         TextView movieYear = view.findViewById(R.id.textMovieYear);
+        ImageView moviePoster = view.findViewById(R.id.imageMoviePoster);
 
         movieName.setText(movie.getTitle());
         movieGenre.setText(movie.getGenre());
         movieYear.setText(movie.getYear() + "");
+        PosterLoader.getInstance(context).load(movie.getPosterUrl(), moviePoster);
 
         return view;
     }
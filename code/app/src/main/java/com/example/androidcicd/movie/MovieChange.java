@@ -0,0 +1,70 @@
+package com.example.androidcicd.movie;
+
+import java.util.Objects;
+
+// One document change from a movies snapshot, decoupled from Firestore so that
+// changes can be recorded, replayed and applied without a live backend
+public class MovieChange {
+    public enum Type { ADDED, MODIFIED, REMOVED }
+
+    private final Type type;
+    private final String id;
+    private final String title;
+    private final String genre;
+    private final int year;
+    private final String posterUrl;
+
+    public MovieChange(Type type, String id, String title, String genre, int year, String posterUrl) {
+        this.type = type;
+        this.id = id;
+        this.title = title;
+        this.genre = genre;
+        this.year = year;
+        this.posterUrl = posterUrl;
+    }
+
+    public Movie toMovie() {
+        Movie movie = new Movie(title, genre, year);
+        movie.setId(id);
+        movie.setPosterUrl(posterUrl);
+        return movie;
+    }
+
+    // Whether applying this change to movie would leave it as it is
+    public boolean matches(Movie movie) {
+        return year == movie.getYear() && Objects.equals(title, movie.getTitle())
+                && Objects.equals(genre, movie.getGenre()) && Objects.equals(posterUrl, movie.getPosterUrl());
+    }
+
+    // Updates movie in place, keeping the one instance per id that the list holds
+    public void applyTo(Movie movie) {
+        movie.setTitle(title);
+        movie.setGenre(genre);
+        movie.setYear(year);
+        movie.setPosterUrl(posterUrl);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getGenre() {
+        return genre;
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    public String getPosterUrl() {
+        return posterUrl;
+    }
+}
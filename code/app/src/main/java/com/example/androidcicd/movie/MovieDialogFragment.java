@@ -24,6 +24,7 @@ public class MovieDialogFragment extends DialogFragment {
     private EditText editMovieName;
     private EditText editMovieGenre;
     private EditText editMovieYear;
+    private TextView similarTitleText;
     private MovieProvider movieProvider;
 
     public static MovieDialogFragment newInstance(Movie movie) {
@@ -42,7 +43,10 @@ public class MovieDialogFragment extends DialogFragment {
         editMovieName = view.findViewById(R.id.edit_title);
         editMovieGenre = view.findViewById(R.id.edit_genre);
         editMovieYear = view.findViewById(R.id.edit_year);
+        similarTitleText = view.findViewById(R.id.error_text);
         movieProvider = MovieProvider.getInstance(FirebaseFirestore.getInstance());
+        // Have the duplicate check ready by the time a title has been typed
+        movieProvider.prepareTitleIndex();
 
         String tag = getTag();
         Bundle bundle = getArguments();
@@ -63,6 +67,7 @@ public class MovieDialogFragment extends DialogFragment {
                 if (isEmpty(textView.getText())) {
                     textView.setError("Movie name cannot be empty!");
                 }
+                showSimilarTitles(textView.getText().toString(), movie);
             }
         });
 
@@ -144,6 +149,18 @@ public class MovieDialogFragment extends DialogFragment {
         return dialog; // Return the dialog properly
     }
 
+    // Flags existing movies whose titles look like the one being entered
+    private void showSimilarTitles(String title, @Nullable Movie movie) {
+        for (TitleSimilarityIndex.Match match : movieProvider.findSimilarTitles(title)) {
+            if (movie != null && match.getId().equals(movie.getId()))
+                continue;
+            similarTitleText.setText("Possible duplicate of \"" + match.getTitle() + "\"");
+            similarTitleText.setVisibility(View.VISIBLE);
+            return;
+        }
+        similarTitleText.setVisibility(View.GONE);
+    }
+
     private boolean validInput() {
         Editable title = editMovieName.getText();
         Editable genre = editMovieGenre.getText();
@@ -0,0 +1,69 @@
+package com.example.androidcicd.movie;
+
+import com.google.firebase.firestore.Query;
+
+// Genre and year range predicates that are pushed down to Firestore as a query, so only
+// matching documents are transferred. Genre plus a year range needs the composite index
+// declared in firestore.indexes.json.
+public class MovieFilter {
+    private final String genre;
+    private final Integer minYear;
+    private final Integer maxYear;
+
+    // Any argument may be null to leave that predicate out
+    public MovieFilter(String genre, Integer minYear, Integer maxYear) {
+        if (minYear != null && maxYear != null && minYear > maxYear)
+            throw new IllegalArgumentException("Invalid year range!");
+        this.genre = genre;
+        this.minYear = minYear;
+        this.maxYear = maxYear;
+    }
+
+    public static MovieFilter all() {
+        return new MovieFilter(null, null, null);
+    }
+
+    public static MovieFilter byGenre(String genre) {
+        return new MovieFilter(genre, null, null);
+    }
+
+    public static MovieFilter byYears(int minYear, int maxYear) {
+        return new MovieFilter(null, minYear, maxYear);
+    }
+
+    // collection may be the flat collection, one shard or a collection group over all shards
+    public Query toQuery(Query collection) {
+        Query query = collection;
+        if (genre != null)
+            query = query.whereEqualTo("genre", genre);
+        if (minYear != null)
+            query = query.whereGreaterThanOrEqualTo("year", minYear);
+        if (maxYear != null)
+            query = query.whereLessThanOrEqualTo("year", maxYear);
+        if (minYear != null || maxYear != null)
+            query = query.orderBy("year");
+        return query;
+    }
+
+    public boolean isAll() {
+        return genre == null && minYear == null && maxYear == null;
+    }
+
+    public boolean matches(Movie movie) {
+        return (genre == null || genre.equals(movie.getGenre()))
+                && (minYear == null || movie.getYear() >= minYear)
+                && (maxYear == null || movie.getYear() <= maxYear);
+    }
+
+    public String getGenre() {
+        return genre;
+    }
+
+    public Integer getMinYear() {
+        return minYear;
+    }
+
+    public Integer getMaxYear() {
+        return maxYear;
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.androidcicd.movie;
+
+// A single pending write to the movies collection
+public class MovieMutation {
+    public enum Type { SET, DELETE }
+
+    private final long sequence;
+    private final Type type;
+    private final String movieId;
+    private final String title;
+    private final String genre;
+    private final int year;
+    private final String posterUrl;
+
+    MovieMutation(long sequence, Type type, String movieId, String title, String genre, int year, String posterUrl) {
+        this.sequence = sequence;
+        this.type = type;
+        this.movieId = movieId;
+        this.title = title;
+        this.genre = genre;
+        this.year = year;
+        this.posterUrl = posterUrl;
+    }
+
+    public static MovieMutation set(Movie movie) {
+        return new MovieMutation(0, Type.SET, movie.getId(), movie.getTitle(), movie.getGenre(), movie.getYear(), movie.getPosterUrl());
+    }
+
+    public static MovieMutation delete(Movie movie) {
+        // Genre and year locate the document when the catalog is sharded
+        return new MovieMutation(0, Type.DELETE, movie.getId(), null, movie.getGenre(), movie.getYear(), null);
+    }
+
+    MovieMutation withSequence(long sequence) {
+        return new MovieMutation(sequence, type, movieId, title, genre, year, posterUrl);
+    }
+
+    // The document contents written by a SET mutation
+    public Movie toMovie() {
+        Movie movie = new Movie(title, genre, year);
+        movie.setId(movieId);
+        movie.setPosterUrl(posterUrl);
+        return movie;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getMovieId() {
+        return movieId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getGenre() {
+        return genre;
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    public String getPosterUrl() {
+        return posterUrl;
+    }
+}
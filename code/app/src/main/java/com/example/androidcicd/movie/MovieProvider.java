@@ -1,16 +1,68 @@
 package com.example.androidcicd.movie;
 
+import com.google.android.gms.tasks.Task;
 import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Source;
+import com.google.firebase.firestore.WriteBatch;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class MovieProvider {
+    // How long tombstones are kept, and so how long a device can be offline and still delta sync
+    public static final long TOMBSTONE_RETENTION_MILLIS = TimeUnit.DAYS.toMillis(30);
+    private static final long COMPACTION_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+    // Past this many changes in one snapshot (an initial load, say) the list is sorted once
+    // instead of inserting each movie into place
+    private static final int BULK_THRESHOLD = 256;
+    private static final Comparator<Movie> BY_ID = (a, b) -> a.getId().compareTo(b.getId());
+    private static final Comparator<Movie> BY_YEAR = (a, b) -> {
+        int compare = Integer.compare(a.getYear(), b.getYear());
+        return compare != 0 ? compare : a.getId().compareTo(b.getId());
+    };
     private static MovieProvider movieProvider;
+    // Kept in the order the current query returns documents
     private final ArrayList<Movie> movies;
+    private Comparator<Movie> order = BY_ID;
+    // The identity map: the one Movie instance for each id, shared with the list and the UI
+    private final HashMap<String, Movie> moviesById = new HashMap<>();
     private final CollectionReference movieCollection;
+    private MutationQueue mutationQueue;
+    private ListenerRegistration registration;
+    // The listener's status while it only listens for movies written since a point in time
+    private DataStatus sinceStatus;
+    // Only built once titles are first checked, off the main thread, and kept up to date after
+    private TitleSimilarityIndex titleIndex;
+    private Future<TitleSimilarityIndex> titleIndexBuild;
+    // Ids of movies changed while titleIndexBuild runs, to bring the index up to date with
+    private final HashSet<String> titleIndexBacklog = new HashSet<>();
+    private ExecutorService titleIndexExecutor;
+    private SyncCheckpoint syncCheckpoint;
+    private MovieShards shards;
+    private CatalogSummary catalogSummary;
 
     private MovieProvider(FirebaseFirestore firestore) {
         movies = new ArrayList<>();
@@ -20,24 +72,351 @@ public class MovieProvider {
     public interface DataStatus {
         void onDataUpdated();
         void onError(String error);
+
+        // Called with the changes of each snapshot just before onDataUpdated
+        default void onMoviesChanged(List<MovieChange> changes) {}
+    }
+
+    public ListenerRegistration listenForUpdates(final DataStatus dataStatus) {
+        return listenForUpdates(MovieFilter.all(), dataStatus);
+    }
+
+    // Replaces any previous listener with one on only the movies matching filter. The unfiltered
+    // view starts from the local cache when a sync checkpoint shows the cache is complete, or else
+    // from the catalog summary's few chunk documents, and then only fetches documents changed
+    // since. Without either it reads every movie.
+    public ListenerRegistration listenForUpdates(MovieFilter filter, final DataStatus dataStatus) {
+        if (registration != null)
+            registration.remove();
+        movies.clear();
+        moviesById.clear();
+        sinceStatus = null;
+        titleIndex = null;
+        if (titleIndexBuild != null)
+            titleIndexBuild.cancel(false);
+        titleIndexBuild = null;
+        titleIndexBacklog.clear();
+        order = filter.getMinYear() != null || filter.getMaxYear() != null ? BY_YEAR : BY_ID;
+
+        // A sharded view that only needs some shards listens to each of them and no others
+        List<String> shardKeys = shards != null && !filter.isAll() ? shards.shardsFor(filter) : null;
+        if (shardKeys != null) {
+            ShardRegistration shardRegistration = new ShardRegistration();
+            for (String shardKey : shardKeys)
+                shardRegistration.shards.add(listen(filter.toQuery(shards.collection(shardKey)), false, false, dataStatus));
+            registration = shardRegistration;
+            return registration;
+        }
+
+        Query allMovies = allMovies();
+        long since = filter.isAll() ? startingHighWaterMark() : 0;
+        if (since == 0 && filter.isAll() && catalogSummary != null) {
+            registration = listenFromSummary(dataStatus);
+            return registration;
+        }
+        if (since == 0) {
+            registration = listen(filter.toQuery(allMovies), filter.isAll(), false, dataStatus);
+            return registration;
+        }
+
+        DeferredRegistration deltaRegistration = new DeferredRegistration();
+        registration = deltaRegistration;
+        allMovies.get(Source.CACHE).addOnCompleteListener(task -> {
+            if (deltaRegistration.removed)
+                return;
+            if (task.isSuccessful() && countLive(task.getResult()) >= syncCheckpoint.getSyncedCount()) {
+                applyChanges(decodeChanges(task.getResult().getDocumentChanges(), false), dataStatus);
+                deltaRegistration.live = listenSince(since, true, dataStatus);
+            } else {
+                // The cache has lost movies since the last sync, so it is no base to build on
+                deltaRegistration.live = listen(allMovies, true, false, dataStatus);
+            }
+        });
+        return registration;
+    }
+
+    // Reads the catalog summary once, then listens only for movies written after it
+    private ListenerRegistration listenFromSummary(DataStatus dataStatus) {
+        DeferredRegistration summaryRegistration = new DeferredRegistration();
+        catalogSummary.load(new CatalogSummary.Listener() {
+            @Override
+            public void onLoaded(List<MovieChange> movies, long since) {
+                if (summaryRegistration.removed)
+                    return;
+                applyChanges(movies, dataStatus);
+                // Not tracked: the local cache only ever sees the movies written since the
+                // summary, so it could not stand in for the catalog on a later launch
+                summaryRegistration.live = listenSince(since, false, dataStatus);
+            }
+
+            @Override
+            public void onMissing() {
+                // Until the summary is rebuilt, read the movies themselves
+                if (!summaryRegistration.removed)
+                    summaryRegistration.live = listen(allMovies(), true, false, dataStatus);
+            }
+
+            @Override
+            public void onError(String error) {
+                dataStatus.onError(error);
+                onMissing();
+            }
+        });
+        return summaryRegistration;
+    }
+
+    // Every movie document, in whichever layout is in use
+    private Query allMovies() {
+        return shards != null ? shards.allShards() : movieCollection;
+    }
+
+    private DocumentReference documentFor(String id, String genre, int year) {
+        return shards != null ? shards.document(id, genre, year) : movieCollection.document(id);
+    }
+
+    // Listens for movies written after since. A local write carries no server updatedAt until
+    // it is acknowledged, so the query drops the movie meanwhile; that removal is ignored, and
+    // the provider's own writes are applied as they are made instead.
+    private ListenerRegistration listenSince(long since, boolean tracksSync, DataStatus dataStatus) {
+        sinceStatus = dataStatus;
+        return listen(allMovies().whereGreaterThan("updatedAt", new Date(since)), tracksSync, true, dataStatus);
     }
 
-    public void listenForUpdates(final DataStatus dataStatus) {
-        movieCollection.addSnapshotListener((snapshot, error) -> {
+    private ListenerRegistration listen(Query query, boolean tracksSync, boolean keepsPendingWrites, DataStatus dataStatus) {
+        return query.addSnapshotListener((snapshot, error) -> {
             if (error != null) {
                 dataStatus.onError(error.getMessage());
                 return;
             }
-            movies.clear();
-            if (snapshot != null) {
-                for (QueryDocumentSnapshot item : snapshot) {
-                    movies.add(item.toObject(Movie.class));
-                }
-                dataStatus.onDataUpdated();
-            }
+            if (snapshot == null)
+                return;
+            List<DocumentChange> documentChanges = snapshot.getDocumentChanges();
+            List<MovieChange> changes = decodeChanges(documentChanges, keepsPendingWrites);
+            // A snapshot of nothing but unchanged resends needs no refresh
+            if (!changes.isEmpty() || documentChanges.isEmpty())
+                applyChanges(changes, dataStatus);
+            // Only a listener that sees every change may move the high-water mark
+            if (tracksSync && syncCheckpoint != null)
+                advanceHighWaterMark(snapshot, dataStatus);
         });
     }
 
+    private long startingHighWaterMark() {
+        // Without a complete sync on record the cache may hold only part of the collection
+        if (syncCheckpoint == null || syncCheckpoint.getSyncedCount() < 0)
+            return 0;
+        long highWaterMark = syncCheckpoint.getHighWaterMark();
+        // Tombstones older than the retention period may be gone, so a device that has been
+        // away that long could miss deletes and has to read everything again
+        if (highWaterMark < System.currentTimeMillis() - TOMBSTONE_RETENTION_MILLIS)
+            return 0;
+        return highWaterMark;
+    }
+
+    private void advanceHighWaterMark(QuerySnapshot snapshot, DataStatus dataStatus) {
+        // A snapshot from the local cache says nothing about what the server has sent
+        if (snapshot.getMetadata().isFromCache())
+            return;
+        long newest = 0;
+        for (DocumentChange change : snapshot.getDocumentChanges()) {
+            DocumentSnapshot document = change.getDocument();
+            Date updatedAt = document.getDate("updatedAt");
+            // Local writes carry no server time yet
+            if (updatedAt != null && !document.getMetadata().hasPendingWrites())
+                newest = Math.max(newest, updatedAt.getTime());
+        }
+        try {
+            // The listener now holds everything, so this many cached movies make a full base
+            syncCheckpoint.recordSync(newest, moviesById.size());
+        } catch (IOException e) {
+            dataStatus.onError("Failed to save sync checkpoint: " + e.getMessage());
+        }
+    }
+
+    private static int countLive(QuerySnapshot snapshot) {
+        int count = 0;
+        for (DocumentSnapshot document : snapshot.getDocuments()) {
+            if (!Boolean.TRUE.equals(document.getBoolean("deleted")))
+                count++;
+        }
+        return count;
+    }
+
+    // Stands for a listener that is attached, or swapped, once an earlier read completes
+    private static class DeferredRegistration implements ListenerRegistration {
+        private ListenerRegistration live;
+        private boolean removed;
+
+        @Override
+        public void remove() {
+            removed = true;
+            if (live != null)
+                live.remove();
+        }
+    }
+
+    private static class ShardRegistration implements ListenerRegistration {
+        private final List<ListenerRegistration> shards = new ArrayList<>();
+
+        @Override
+        public void remove() {
+            for (ListenerRegistration shard : shards)
+                shard.remove();
+        }
+    }
+
+    // Applies the document changes of one snapshot, whether live, recorded or replayed. Each id
+    // keeps one Movie instance, updated in place, and changes that would not alter anything are
+    // skipped without allocating. Listeners are told only about the changes that did apply, and
+    // not at all if none did.
+    //
+    // The list is kept sorted the way the query orders documents, by year when the filter has a
+    // year range and by id otherwise, and positions are found by binary search. The indexes a
+    // DocumentChange carries are not used because they also count tombstones, which the list
+    // leaves out.
+    public void applyChanges(List<MovieChange> changes, DataStatus dataStatus) {
+        boolean bulk = changes.size() > BULK_THRESHOLD && changes.size() > movies.size() / 4;
+        // changes itself until one is skipped, then copied only if a later change applies
+        List<MovieChange> applied = changes;
+        int firstSkipped = -1;
+        for (int i = 0; i < changes.size(); i++) {
+            MovieChange change = changes.get(i);
+            if (!apply(change, !bulk)) {
+                if (firstSkipped < 0)
+                    firstSkipped = i;
+                continue;
+            }
+            if (firstSkipped >= 0) {
+                if (applied == changes)
+                    applied = new ArrayList<>(changes.subList(0, firstSkipped));
+                applied.add(change);
+            }
+        }
+        if (firstSkipped == 0 && applied == changes)
+            return;
+        if (firstSkipped > 0 && applied == changes)
+            applied = changes.subList(0, firstSkipped);
+        if (bulk) {
+            movies.clear();
+            movies.addAll(moviesById.values());
+            movies.sort(order);
+        }
+        dataStatus.onMoviesChanged(applied);
+        dataStatus.onDataUpdated();
+    }
+
+    // False if the change left everything as it was. With updateList false only the identity
+    // map is updated, and the caller rebuilds the list afterwards.
+    private boolean apply(MovieChange change, boolean updateList) {
+        Movie movie = moviesById.get(change.getId());
+        if (change.getType() == MovieChange.Type.REMOVED) {
+            if (movie == null || isLeftBehindByMove(change))
+                return false;
+            moviesById.remove(change.getId());
+            if (updateList)
+                movies.remove(Collections.binarySearch(movies, movie, order));
+            indexTitle(change.getId());
+            return true;
+        }
+        if (movie == null) {
+            movie = change.toMovie();
+            moviesById.put(change.getId(), movie);
+            if (updateList)
+                movies.add(-Collections.binarySearch(movies, movie, order) - 1, movie);
+            indexTitle(change.getId());
+            return true;
+        }
+        if (change.matches(movie))
+            return false;
+        boolean retitled = !Objects.equals(movie.getTitle(), change.getTitle());
+        // A new year moves the movie when the list is ordered by year
+        boolean moves = updateList && order == BY_YEAR && movie.getYear() != change.getYear();
+        if (moves)
+            movies.remove(Collections.binarySearch(movies, movie, order));
+        change.applyTo(movie);
+        if (moves)
+            movies.add(-Collections.binarySearch(movies, movie, order) - 1, movie);
+        if (retitled)
+            indexTitle(change.getId());
+        return true;
+    }
+
+    // Brings the title index, or the backlog of one being built, up to date with the movie's title
+    private void indexTitle(String id) {
+        if (titleIndex == null) {
+            if (titleIndexBuild != null)
+                titleIndexBacklog.add(id);
+            return;
+        }
+        Movie movie = moviesById.get(id);
+        if (movie != null && movie.getTitle() != null)
+            titleIndex.add(id, movie.getTitle());
+        else
+            titleIndex.remove(id);
+    }
+
+    // A movie that changed shard leaves a tombstone in its old shard, which may arrive after
+    // the movie itself has arrived from the new one
+    private boolean isLeftBehindByMove(MovieChange change) {
+        Movie current = moviesById.get(change.getId());
+        return shards != null && current != null
+                && !shards.shardKey(current.getGenre(), current.getYear()).equals(shards.shardKey(change.getGenre(), change.getYear()));
+    }
+
+    // Only documents that changed since the previous snapshot are reported here
+    static List<MovieChange> toChanges(QuerySnapshot snapshot) {
+        List<MovieChange> changes = new ArrayList<>(snapshot.getDocumentChanges().size());
+        for (DocumentChange change : snapshot.getDocumentChanges())
+            changes.add(toChange(change));
+        return changes;
+    }
+
+    private static MovieChange toChange(DocumentChange change) {
+        DocumentSnapshot document = change.getDocument();
+        Long year = document.getLong("year");
+        // A tombstone is a delete as far as the list is concerned
+        MovieChange.Type type = Boolean.TRUE.equals(document.getBoolean("deleted"))
+                ? MovieChange.Type.REMOVED : MovieChange.Type.valueOf(change.getType().name());
+        return new MovieChange(type, document.getId(),
+                document.getString("title"), document.getString("genre"),
+                year != null ? year.intValue() : 0, document.getString("posterUrl"));
+    }
+
+    // Like toChanges, but documents that match the movie already held, as a resend or a change
+    // to a field the list does not show would, are skipped before any MovieChange is made.
+    // With keepsPendingWrites, so are documents that only left the query for a local write.
+    private List<MovieChange> decodeChanges(List<DocumentChange> documentChanges, boolean keepsPendingWrites) {
+        List<MovieChange> changes = null;
+        for (int i = 0; i < documentChanges.size(); i++) {
+            DocumentChange change = documentChanges.get(i);
+            if (change.getType() != DocumentChange.Type.REMOVED ? isUnchanged(change.getDocument())
+                    : keepsPendingWrites && change.getDocument().getMetadata().hasPendingWrites())
+                continue;
+            if (changes == null)
+                changes = new ArrayList<>(documentChanges.size() - i);
+            changes.add(toChange(change));
+        }
+        return changes != null ? changes : Collections.emptyList();
+    }
+
+    private boolean isUnchanged(DocumentSnapshot document) {
+        Movie movie = moviesById.get(document.getId());
+        if (movie == null || Boolean.TRUE.equals(document.getBoolean("deleted")))
+            return false;
+        Long year = document.getLong("year");
+        return (year != null ? year.intValue() : 0) == movie.getYear()
+                && Objects.equals(document.getString("title"), movie.getTitle())
+                && Objects.equals(document.getString("genre"), movie.getGenre())
+                && Objects.equals(document.getString("posterUrl"), movie.getPosterUrl());
+    }
+
+    // The shared provider, on the default Firestore instance unless one was set for testing
+    public static MovieProvider getInstance() {
+        if (movieProvider == null)
+            movieProvider = new MovieProvider(FirebaseFirestore.getInstance());
+        return movieProvider;
+    }
+
     public static MovieProvider getInstance(FirebaseFirestore firestore) {
         if (movieProvider == null)
             movieProvider = new MovieProvider(firestore);
@@ -48,33 +427,73 @@ public class MovieProvider {
         return movies;
     }
 
-    public void updateMovie(Movie movie, String title, String genre, int year) {
-        movie.setTitle(title);
-        movie.setGenre(genre);
-        movie.setYear(year);
-        DocumentReference docRef = movieCollection.document(movie.getId());
+    // The current movie with this id, or null if there is none
+    public Movie getMovie(String id) {
+        return moviesById.get(id);
+    }
+
+    public void updateMovie(Movie current, String title, String genre, int year) {
+        // Where the movie was, if this update moves it to another shard
+        Movie moved = null;
+        if (shards != null && !shards.shardKey(current.getGenre(), current.getYear()).equals(shards.shardKey(genre, year))) {
+            moved = new Movie(current.getTitle(), current.getGenre(), current.getYear());
+            moved.setId(current.getId());
+        }
+        // Written as a copy: current may be the listed instance, which only the snapshot that
+        // confirms the write should change, or that snapshot would look like it changed nothing.
+        // Leaving updatedAt unset lets the server stamp the write.
+        Movie movie = new Movie(title, genre, year);
+        movie.setId(current.getId());
+        movie.setPosterUrl(current.getPosterUrl());
+        DocumentReference docRef = documentFor(movie.getId(), genre, year);
         if (validMovie(movie, docRef)) {
-            docRef.set(movie);
+            applyLocally(MovieChange.Type.MODIFIED, movie);
+            if (mutationQueue != null) {
+                if (moved != null)
+                    mutationQueue.enqueue(MovieMutation.delete(moved));
+                mutationQueue.enqueue(MovieMutation.set(movie));
+            } else if (moved != null) {
+                WriteBatch batch = movieCollection.getFirestore().batch();
+                batch.set(documentFor(moved.getId(), moved.getGenre(), moved.getYear()), tombstone(), SetOptions.merge());
+                batch.set(docRef, movie);
+                if (writesSummary())
+                    catalogSummary.put(batch, movie);
+                batch.commit();
+            } else {
+                writeMovie(docRef, movie);
+            }
         } else {
             throw new IllegalArgumentException("Invalid Movie!");
         }
     }
 
     public void addMovie(Movie movie, DataStatus dataStatus) {
-        movieCollection.whereEqualTo("title", movie.getTitle()).get()
+        allMovies().whereEqualTo("title", movie.getTitle()).get()
                 .addOnCompleteListener(task -> {
                     if (task.isSuccessful()) {
-                        if (!task.getResult().isEmpty()) {
+                        if (!task.getResult().isEmpty() && !hasOnlyTombstones(task.getResult())) {
                             // Movie already exists, return error
                             dataStatus.onError("A movie with this title already exists!");
                         } else {
                             // Movie does not exist, proceed with adding it
                             DocumentReference docRef = movieCollection.document();
                             movie.setId(docRef.getId());
+                            if (shards != null)
+                                docRef = shards.document(movie.getId(), movie.getGenre(), movie.getYear());
                             if (validMovie(movie, docRef)) {
-                                docRef.set(movie)
-                                        .addOnSuccessListener(aVoid -> dataStatus.onDataUpdated())
-                                        .addOnFailureListener(e -> dataStatus.onError("Failed to add movie: " + e.getMessage()));
+                                applyLocally(MovieChange.Type.ADDED, movie);
+                                if (mutationQueue != null) {
+                                    // Queued writes are durable, so the movie counts as added
+                                    mutationQueue.enqueue(MovieMutation.set(movie));
+                                    dataStatus.onDataUpdated();
+                                } else {
+                                    writeMovie(docRef, movie)
+                                            .addOnSuccessListener(aVoid -> dataStatus.onDataUpdated())
+                                            .addOnFailureListener(e -> {
+                                                applyLocally(MovieChange.Type.REMOVED, movie);
+                                                dataStatus.onError("Failed to add movie: " + e.getMessage());
+                                            });
+                                }
                             } else {
                                 dataStatus.onError("Invalid Movie!");
                             }
@@ -87,21 +506,273 @@ public class MovieProvider {
 
 
     public void deleteMovie(Movie movie) {
-        DocumentReference docRef = movieCollection.document(movie.getId());
-        docRef.delete();
+        applyLocally(MovieChange.Type.REMOVED, movie);
+        if (mutationQueue != null) {
+            mutationQueue.enqueue(MovieMutation.delete(movie));
+            return;
+        }
+        DocumentReference docRef = documentFor(movie.getId(), movie.getGenre(), movie.getYear());
+        if (!writesSummary()) {
+            docRef.set(tombstone(), SetOptions.merge());
+            return;
+        }
+        WriteBatch batch = movieCollection.getFirestore().batch();
+        batch.set(docRef, tombstone(), SetOptions.merge());
+        catalogSummary.remove(batch, movie.getId());
+        batch.commit();
+    }
+
+    // A listener on movies written since some time only sees a local write once the server has
+    // acknowledged it, so the provider's own writes are listed as soon as they are made
+    private void applyLocally(MovieChange.Type type, Movie movie) {
+        if (sinceStatus != null)
+            applyChanges(Collections.singletonList(new MovieChange(type, movie.getId(), movie.getTitle(),
+                    movie.getGenre(), movie.getYear(), movie.getPosterUrl())), sinceStatus);
+    }
+
+    // Writes movie together with its catalog summary entry, if there is a summary
+    private Task<Void> writeMovie(DocumentReference docRef, Movie movie) {
+        if (!writesSummary())
+            return docRef.set(movie);
+        WriteBatch batch = movieCollection.getFirestore().batch();
+        batch.set(docRef, movie);
+        catalogSummary.put(batch, movie);
+        return batch.commit();
+    }
+
+    // Marks a movie deleted instead of removing it, so delta syncs on other devices see the
+    // delete. Merging rather than updating also works if the document is already gone.
+    private static Map<String, Object> tombstone() {
+        Map<String, Object> tombstone = new HashMap<>();
+        tombstone.put("deleted", true);
+        tombstone.put("updatedAt", FieldValue.serverTimestamp());
+        return tombstone;
+    }
+
+    private static boolean hasOnlyTombstones(QuerySnapshot result) {
+        List<DocumentSnapshot> documents = result.getDocuments();
+        for (DocumentSnapshot document : documents) {
+            if (!Boolean.TRUE.equals(document.getBoolean("deleted")))
+                return false;
+        }
+        return !documents.isEmpty();
+    }
+
+    // Tracks sync progress so later launches only fetch changed documents
+    public void setSyncCheckpoint(SyncCheckpoint syncCheckpoint) {
+        this.syncCheckpoint = syncCheckpoint;
+    }
+
+    public SyncCheckpoint getSyncCheckpoint() {
+        return syncCheckpoint;
+    }
+
+    // Switches reads and writes to the sharded layout. Existing movies have to be moved there
+    // with MovieShardMigration first.
+    public void setShards(MovieShards shards) {
+        this.shards = shards;
+    }
+
+    public MovieShards getShards() {
+        return shards;
+    }
+
+    // Hard deletes tombstones past the retention period, at most once per compaction interval
+    public void compactTombstones(DataStatus dataStatus) {
+        if (syncCheckpoint == null)
+            return;
+        long now = System.currentTimeMillis();
+        if (now - syncCheckpoint.getLastCompaction() < COMPACTION_INTERVAL_MILLIS)
+            return;
+        compactTombstonesBefore(new Date(now - TOMBSTONE_RETENTION_MILLIS), now, dataStatus);
+    }
+
+    private void compactTombstonesBefore(Date cutoff, long now, DataStatus dataStatus) {
+        allMovies().whereEqualTo("deleted", true).whereLessThan("updatedAt", cutoff)
+                .limit(MutationQueue.MAX_BATCH_SIZE).get()
+                .addOnSuccessListener(result -> {
+                    WriteBatch batch = movieCollection.getFirestore().batch();
+                    for (DocumentSnapshot document : result.getDocuments())
+                        batch.delete(document.getReference());
+                    batch.commit()
+                            .addOnSuccessListener(aVoid -> {
+                                if (result.size() == MutationQueue.MAX_BATCH_SIZE) {
+                                    compactTombstonesBefore(cutoff, now, dataStatus);
+                                    return;
+                                }
+                                try {
+                                    syncCheckpoint.setLastCompaction(now);
+                                    dataStatus.onDataUpdated();
+                                } catch (IOException e) {
+                                    dataStatus.onError("Failed to save sync checkpoint: " + e.getMessage());
+                                }
+                            })
+                            .addOnFailureListener(e -> dataStatus.onError("Failed to compact tombstones: " + e.getMessage()));
+                })
+                .addOnFailureListener(e -> dataStatus.onError("Failed to find tombstones: " + e.getMessage()));
+    }
+
+    // Routes add, update and delete through a durable queue instead of writing directly
+    public void setMutationQueue(MutationQueue mutationQueue) {
+        this.mutationQueue = mutationQueue;
+    }
+
+    public MutationQueue getMutationQueue() {
+        return mutationQueue;
+    }
+
+    // Commits a batch of queued mutations atomically, for use as a MutationQueue.Committer.
+    // Summary writes take up to CHUNK_COUNT more operations, so a full batch is committed in
+    // two parts, each atomic together with its own summary writes.
+    public void commitBatch(List<MovieMutation> mutations, MutationQueue.CommitCallback callback) {
+        int limit = writesSummary() ? MutationQueue.MAX_BATCH_SIZE - CatalogSummary.CHUNK_COUNT : mutations.size();
+        if (mutations.size() > limit) {
+            commitBatch(mutations.subList(0, limit), new MutationQueue.CommitCallback() {
+                @Override
+                public void onCommitted() {
+                    commitBatch(mutations.subList(limit, mutations.size()), callback);
+                }
+
+                @Override
+                public void onError(String error) {
+                    callback.onError(error);
+                }
+
+                @Override
+                public void onRejected(String error) {
+                    callback.onRejected(error);
+                }
+            });
+            return;
+        }
+        WriteBatch batch = movieCollection.getFirestore().batch();
+        for (MovieMutation mutation : mutations) {
+            DocumentReference docRef = documentFor(mutation.getMovieId(), mutation.getGenre(), mutation.getYear());
+            if (mutation.getType() == MovieMutation.Type.SET)
+                batch.set(docRef, mutation.toMovie());
+            else
+                batch.set(docRef, tombstone(), SetOptions.merge());
+        }
+        if (writesSummary())
+            catalogSummary.apply(batch, mutations);
+        batch.commit()
+                .addOnSuccessListener(aVoid -> callback.onCommitted())
+                .addOnFailureListener(e -> {
+                    if (isPermanent(e))
+                        callback.onRejected("Movies rejected: " + e.getMessage());
+                    else
+                        callback.onError("Failed to commit movies: " + e.getMessage());
+                });
+    }
+
+    // Failures retrying cannot fix: the write itself is at fault, not the connection or the load
+    static boolean isPermanent(Exception e) {
+        if (!(e instanceof FirebaseFirestoreException))
+            return false;
+        switch (((FirebaseFirestoreException) e).getCode()) {
+            case INVALID_ARGUMENT:
+            case NOT_FOUND:
+            case ALREADY_EXISTS:
+            case PERMISSION_DENIED:
+            case FAILED_PRECONDITION:
+            case OUT_OF_RANGE:
+            case UNIMPLEMENTED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Keeps a catalog summary up to date with every write and lists movies from it
+    public void setCatalogSummary(CatalogSummary catalogSummary) {
+        this.catalogSummary = catalogSummary;
+    }
+
+    public CatalogSummary getCatalogSummary() {
+        return catalogSummary;
+    }
+
+    // Only a summary that has been built is kept up to date; until then writes leave it alone
+    private boolean writesSummary() {
+        return catalogSummary != null && catalogSummary.isBuilt();
+    }
+
+    // Writes the catalog summary from scratch, for a catalog that predates it
+    public void rebuildCatalogSummary(DataStatus dataStatus) {
+        if (catalogSummary != null)
+            catalogSummary.rebuild(allMovies(), dataStatus);
     }
 
     public boolean validMovie(Movie movie, DocumentReference docRef) {
         return movie.getId().equals(docRef.getId()) && !movie.getTitle().isEmpty() && !movie.getGenre().isEmpty() && movie.getYear() > 0;
     }
+
+    // Existing movies whose titles are likely duplicates of title, most similar first. Only the
+    // movies the current listener has delivered are checked, which under a filter or selective
+    // shard listening is just part of the catalog; exact duplicates are still caught by addMovie's
+    // server query. Nothing is found until the index has been built in the background, which
+    // takes a second or two at 100k movies and starts on the first call here or to prepareTitleIndex.
+    public List<TitleSimilarityIndex.Match> findSimilarTitles(String title) {
+        if (!prepareTitleIndex())
+            return Collections.emptyList();
+        return titleIndex.findSimilar(title);
+    }
+
+    // Starts building the title index in the background, and installs it once it is built.
+    // True once it is ready.
+    public boolean prepareTitleIndex() {
+        if (titleIndex != null)
+            return true;
+        if (titleIndexBuild == null) {
+            String[] ids = new String[moviesById.size()];
+            String[] titles = new String[ids.length];
+            int i = 0;
+            for (Map.Entry<String, Movie> entry : moviesById.entrySet()) {
+                ids[i] = entry.getKey();
+                titles[i++] = entry.getValue().getTitle();
+            }
+            if (titleIndexExecutor == null)
+                titleIndexExecutor = Executors.newSingleThreadExecutor();
+            titleIndexBuild = titleIndexExecutor.submit(() -> {
+                TitleSimilarityIndex index = new TitleSimilarityIndex();
+                for (int j = 0; j < ids.length; j++) {
+                    if (titles[j] != null)
+                        index.add(ids[j], titles[j]);
+                }
+                return index;
+            });
+            return false;
+        }
+        if (!titleIndexBuild.isDone())
+            return false;
+        try {
+            titleIndex = titleIndexBuild.get();
+        } catch (InterruptedException | ExecutionException e) {
+            // Try again on the next call
+            titleIndexBuild = null;
+            titleIndexBacklog.clear();
+            return false;
+        }
+        titleIndexBuild = null;
+        for (String id : titleIndexBacklog)
+            indexTitle(id);
+        titleIndexBacklog.clear();
+        return true;
+    }
+
     public static void setInstanceForTesting(FirebaseFirestore firestore) {
         movieProvider = new MovieProvider(firestore);
     }
+
+    // Lets UI tests hand MainActivity a spied or otherwise faked provider
+    public static void setInstanceForTesting(MovieProvider provider) {
+        movieProvider = provider;
+    }
     public void movieExists(String title, MovieCheckCallback callback) {
-        movieCollection.whereEqualTo("title", title).get()
+        allMovies().whereEqualTo("title", title).get()
                 .addOnCompleteListener(task -> {
                     if (task.isSuccessful()) {
-                        callback.onCheck(!task.getResult().isEmpty()); // Returns `true` if movie exists
+                        callback.onCheck(!task.getResult().isEmpty() && !hasOnlyTombstones(task.getResult())); // Returns `true` if movie exists
                     } else {
                         callback.onError("Error checking database: " + task.getException().getMessage());
                     }
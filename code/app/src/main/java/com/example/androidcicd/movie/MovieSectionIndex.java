@@ -0,0 +1,208 @@
+package com.example.androidcicd.movie;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+// Keeps the displayed movie list sorted into sections (A-Z by title, or by decade) and
+// updates it from snapshot changes instead of re-sorting. Positions are found by binary
+// search over the sort keys, so jumping to a section is O(log n), and the section table only
+// changes when a section gains its first or loses its last movie.
+public class MovieSectionIndex {
+    public enum Mode { TITLE, YEAR }
+
+    private static final String OTHER_SECTION = "#";
+    // Inserting one at a time shifts the list for every movie, so past this many changes at
+    // once (an initial load, say) the whole list is re-sorted instead
+    private static final int BULK_THRESHOLD = 256;
+
+    private static class SortKey implements Comparable<SortKey> {
+        private final String section;
+        private final int year;
+        private final String title;
+        private final String id;
+
+        SortKey(String section, int year, String title, String id) {
+            this.section = section;
+            this.year = year;
+            this.title = title;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(SortKey other) {
+            int compare = section.compareTo(other.section);
+            if (compare == 0)
+                compare = Integer.compare(year, other.year);
+            if (compare == 0)
+                compare = title.compareToIgnoreCase(other.title);
+            if (compare == 0)
+                compare = title.compareTo(other.title);
+            if (compare == 0)
+                compare = id.compareTo(other.id);
+            return compare;
+        }
+    }
+
+    private final Mode mode;
+    // Parallel lists in display order
+    private final ArrayList<Movie> movies = new ArrayList<>();
+    private final ArrayList<SortKey> keys = new ArrayList<>();
+    private final HashMap<String, SortKey> keysById = new HashMap<>();
+    // Section label -> number of movies in it
+    private final TreeMap<String, Integer> sectionCounts = new TreeMap<>();
+    private String[] sections = new String[0];
+    private boolean sectionsChanged;
+
+    public MovieSectionIndex(Mode mode) {
+        this.mode = mode;
+    }
+
+    // The sorted list to hand to the adapter. It is updated in place by apply.
+    public ArrayList<Movie> getMovies() {
+        return movies;
+    }
+
+    // Applies snapshot changes in order. lookup returns the current Movie for an id, or null
+    // if it has since been removed; the change itself decides where the movie is placed.
+    public void apply(List<MovieChange> changes, Function<String, Movie> lookup) {
+        if (changes.size() > BULK_THRESHOLD && changes.size() > keys.size() / 4) {
+            applyInBulk(changes, lookup);
+            return;
+        }
+        for (MovieChange change : changes) {
+            remove(change.getId());
+            if (change.getType() == MovieChange.Type.REMOVED)
+                continue;
+            Movie movie = lookup.apply(change.getId());
+            if (movie != null)
+                insert(movie, keyFor(change.getId(), change.getTitle(), change.getYear()));
+        }
+    }
+
+    private void applyInBulk(List<MovieChange> changes, Function<String, Movie> lookup) {
+        HashMap<String, Movie> moviesById = new HashMap<>();
+        for (int i = 0; i < keys.size(); i++)
+            moviesById.put(keys.get(i).id, movies.get(i));
+        for (MovieChange change : changes) {
+            keysById.remove(change.getId());
+            moviesById.remove(change.getId());
+            if (change.getType() == MovieChange.Type.REMOVED)
+                continue;
+            Movie movie = lookup.apply(change.getId());
+            if (movie != null) {
+                keysById.put(change.getId(), keyFor(change.getId(), change.getTitle(), change.getYear()));
+                moviesById.put(change.getId(), movie);
+            }
+        }
+
+        keys.clear();
+        keys.addAll(keysById.values());
+        Collections.sort(keys);
+        movies.clear();
+        movies.ensureCapacity(keys.size());
+        sectionCounts.clear();
+        for (SortKey key : keys) {
+            movies.add(moviesById.get(key.id));
+            Integer count = sectionCounts.get(key.section);
+            sectionCounts.put(key.section, count == null ? 1 : count + 1);
+        }
+        sectionsChanged = true;
+    }
+
+    public void clear() {
+        movies.clear();
+        keys.clear();
+        keysById.clear();
+        sectionCounts.clear();
+        sectionsChanged = true;
+    }
+
+    public String[] getSections() {
+        if (sectionsChanged) {
+            sections = sectionCounts.keySet().toArray(new String[0]);
+            sectionsChanged = false;
+        }
+        return sections;
+    }
+
+    // First position of the section, found by binary search
+    public int getPositionForSection(int section) {
+        String[] sections = getSections();
+        if (sections.length == 0)
+            return 0;
+        section = Math.max(0, Math.min(section, sections.length - 1));
+        return lowerBound(new SortKey(sections[section], Integer.MIN_VALUE, "", ""));
+    }
+
+    public int getSectionForPosition(int position) {
+        if (keys.isEmpty())
+            return 0;
+        position = Math.max(0, Math.min(position, keys.size() - 1));
+        int section = Arrays.binarySearch(getSections(), keys.get(position).section);
+        return Math.max(section, 0);
+    }
+
+    private void insert(Movie movie, SortKey key) {
+        int position = lowerBound(key);
+        keys.add(position, key);
+        movies.add(position, movie);
+        keysById.put(key.id, key);
+        Integer count = sectionCounts.get(key.section);
+        sectionCounts.put(key.section, count == null ? 1 : count + 1);
+        if (count == null)
+            sectionsChanged = true;
+    }
+
+    private void remove(String id) {
+        SortKey key = keysById.remove(id);
+        if (key == null)
+            return;
+        int position = Collections.binarySearch(keys, key);
+        keys.remove(position);
+        movies.remove(position);
+        int count = sectionCounts.get(key.section);
+        if (count == 1) {
+            sectionCounts.remove(key.section);
+            sectionsChanged = true;
+        } else {
+            sectionCounts.put(key.section, count - 1);
+        }
+    }
+
+    private int lowerBound(SortKey key) {
+        int low = 0;
+        int high = keys.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys.get(middle).compareTo(key) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    private SortKey keyFor(String id, String title, int year) {
+        String safeTitle = title != null ? title.trim() : "";
+        if (mode == Mode.YEAR)
+            return new SortKey(year > 0 ? (year / 10 * 10) + "s" : OTHER_SECTION, year, safeTitle, id);
+        return new SortKey(titleSection(safeTitle), 0, safeTitle, id);
+    }
+
+    // Upper case first letter with accents stripped, or # for anything else
+    static String titleSection(String title) {
+        if (title.isEmpty())
+            return OTHER_SECTION;
+        String first = Normalizer.normalize(title.substring(0, 1), Normalizer.Form.NFD)
+                .substring(0, 1).toUpperCase(Locale.ROOT);
+        char letter = first.charAt(0);
+        return letter >= 'A' && letter <= 'Z' ? first : OTHER_SECTION;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.androidcicd.movie;
+
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
+
+// Moves every document of the flat movies collection into its shard, one batch at a time.
+// Each batch copies and deletes the same documents atomically, so a movie is always in exactly
+// one place and a migration that is interrupted can simply be run again. Tombstones are moved
+// like any other document so devices that delta sync still see the deletes.
+public class MovieShardMigration {
+    // Every document takes two writes, the copy and the delete
+    public static final int BATCH_SIZE = MutationQueue.MAX_BATCH_SIZE / 2;
+
+    public interface Progress {
+        void onBatchMigrated(int migrated);
+        void onComplete(int migrated);
+        void onError(String error);
+    }
+
+    private final CollectionReference flatCollection;
+    private final MovieShards shards;
+
+    public MovieShardMigration(FirebaseFirestore firestore, MovieShards shards) {
+        this.flatCollection = firestore.collection("movies");
+        this.shards = shards;
+    }
+
+    public void migrate(Progress progress) {
+        migrateBatch(0, progress);
+    }
+
+    // Migrated documents are gone from the flat collection, so each batch is just its first page
+    private void migrateBatch(int migrated, Progress progress) {
+        flatCollection.limit(BATCH_SIZE).get()
+                .addOnSuccessListener(result -> {
+                    if (result.isEmpty()) {
+                        progress.onComplete(migrated);
+                        return;
+                    }
+                    WriteBatch batch = flatCollection.getFirestore().batch();
+                    for (DocumentSnapshot document : result.getDocuments()) {
+                        Long year = document.getLong("year");
+                        batch.set(shards.document(document.getId(), document.getString("genre"), year != null ? year.intValue() : 0),
+                                document.getData());
+                        batch.delete(document.getReference());
+                    }
+                    batch.commit()
+                            .addOnSuccessListener(aVoid -> {
+                                int total = migrated + result.size();
+                                progress.onBatchMigrated(total);
+                                migrateBatch(total, progress);
+                            })
+                            .addOnFailureListener(e -> progress.onError("Failed to migrate movies: " + e.getMessage()));
+                })
+                .addOnFailureListener(e -> progress.onError("Failed to read movies: " + e.getMessage()));
+    }
+}
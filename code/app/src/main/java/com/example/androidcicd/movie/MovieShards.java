@@ -0,0 +1,79 @@
+package com.example.androidcicd.movie;
+
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+// Sharded layout for the catalog: movieShards/{shard}/shardedMovies/{id}, with one shard per
+// genre or per decade. A view that only needs some shards listens to just those, so it is not
+// sent changes to the rest of the catalog. Views that could need any shard use a collection
+// group query over all of them.
+public class MovieShards {
+    public enum Scheme { GENRE, DECADE }
+
+    public static final String SHARD_COLLECTION = "movieShards";
+    // Deliberately not "movies", which would pull the flat collection into group queries
+    public static final String MOVIE_COLLECTION = "shardedMovies";
+    // Past this many shards one group listener is cheaper than a listener per shard
+    static final int MAX_SHARD_LISTENERS = 10;
+    private static final String UNKNOWN_SHARD = "unknown";
+
+    private final FirebaseFirestore firestore;
+    private final Scheme scheme;
+
+    public MovieShards(FirebaseFirestore firestore, Scheme scheme) {
+        this.firestore = firestore;
+        this.scheme = scheme;
+    }
+
+    public Scheme getScheme() {
+        return scheme;
+    }
+
+    // Shard keys are document ids, so genres are reduced to lower case letters, digits and dashes
+    public String shardKey(String genre, int year) {
+        if (scheme == Scheme.DECADE)
+            return year > 0 ? (year / 10 * 10) + "s" : UNKNOWN_SHARD;
+        String key = genre != null
+                ? genre.trim().toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N}]+", "-").replaceAll("^-|-$", "")
+                : "";
+        return key.isEmpty() ? UNKNOWN_SHARD : key;
+    }
+
+    public CollectionReference collection(String shardKey) {
+        return firestore.collection(SHARD_COLLECTION).document(shardKey).collection(MOVIE_COLLECTION);
+    }
+
+    public DocumentReference document(String id, String genre, int year) {
+        return collection(shardKey(genre, year)).document(id);
+    }
+
+    public Query allShards() {
+        return firestore.collectionGroup(MOVIE_COLLECTION);
+    }
+
+    // Keys of the only shards that can hold movies matching filter, or null if any shard can
+    public List<String> shardsFor(MovieFilter filter) {
+        if (scheme == Scheme.GENRE) {
+            if (filter.getGenre() == null)
+                return null;
+            return Collections.singletonList(shardKey(filter.getGenre(), 0));
+        }
+        if (filter.getMinYear() == null || filter.getMaxYear() == null)
+            return null;
+        int firstDecade = Math.max(filter.getMinYear(), 1) / 10 * 10;
+        int lastDecade = filter.getMaxYear() / 10 * 10;
+        if (lastDecade < firstDecade || (lastDecade - firstDecade) / 10 + 1 > MAX_SHARD_LISTENERS)
+            return null;
+        List<String> keys = new ArrayList<>();
+        for (int decade = firstDecade; decade <= lastDecade; decade += 10)
+            keys.add(shardKey(null, decade));
+        return keys;
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.androidcicd.movie;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Sits between MovieProvider and the UI. Bursts of snapshots are merged into at most one
+// refresh per interval: the first update of a burst schedules a rebuild, later ones only mark
+// the list dirty. Each refresh carries the changes since the previous one. Sorted, search and
+// statistics views are rebuilt from the whole list per refresh, so they are only built when asked
+// for, in parallel on a background pool. Either way the listener is called on the main executor
+// and there is never more than one refresh pending. onDataUpdated must be called on the main
+// executor's thread, as Firestore listeners are.
+public class MovieUpdateConflater implements MovieProvider.DataStatus {
+    // About one frame at 60fps
+    public static final long DEFAULT_INTERVAL_MILLIS = 16;
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "movie-conflater");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())), runnable -> {
+                Thread thread = new Thread(runnable, "movie-views");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    public interface Listener {
+        void onViewsUpdated(MovieViews views);
+        void onError(String error);
+    }
+
+    private final MovieProvider provider;
+    private final Listener listener;
+    private final Executor mainExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService pool;
+    private final long intervalMillis;
+    private final boolean buildViews;
+
+    // Only touched on the main executor
+    private boolean dirty;
+    private boolean refreshPending;
+    private List<MovieChange> pendingChanges = new ArrayList<>();
+    private int refreshCount;
+    // Copies of the listed movies by id for the views, as the provider updates its own in place.
+    // A copy is only replaced when a change touches its movie.
+    private final TreeMap<String, Movie> copies = new TreeMap<>();
+
+    // Delivers only the changes of each refresh
+    public MovieUpdateConflater(MovieProvider provider, Listener listener, Executor mainExecutor) {
+        this(provider, listener, mainExecutor, false);
+    }
+
+    public MovieUpdateConflater(MovieProvider provider, Listener listener, Executor mainExecutor, boolean buildViews) {
+        this(provider, listener, mainExecutor, SCHEDULER, POOL, DEFAULT_INTERVAL_MILLIS, buildViews);
+    }
+
+    public MovieUpdateConflater(MovieProvider provider, Listener listener, Executor mainExecutor,
+                                ScheduledExecutorService scheduler, ExecutorService pool, long intervalMillis,
+                                boolean buildViews) {
+        this.provider = provider;
+        this.listener = listener;
+        this.mainExecutor = mainExecutor;
+        this.scheduler = scheduler;
+        this.pool = pool;
+        this.intervalMillis = intervalMillis;
+        this.buildViews = buildViews;
+    }
+
+    @Override
+    public void onMoviesChanged(List<MovieChange> changes) {
+        pendingChanges.addAll(changes);
+    }
+
+    @Override
+    public void onDataUpdated() {
+        dirty = true;
+        if (refreshPending)
+            return;
+        refreshPending = true;
+        scheduler.schedule(() -> mainExecutor.execute(this::rebuild), intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void onError(String error) {
+        listener.onError(error);
+    }
+
+    // Number of refreshes delivered to the listener so far
+    public int getRefreshCount() {
+        return refreshCount;
+    }
+
+    private void rebuild() {
+        dirty = false;
+        List<MovieChange> changes = pendingChanges;
+        pendingChanges = new ArrayList<>();
+        if (!buildViews) {
+            deliver(new MovieViews(changes));
+            return;
+        }
+
+        updateCopies(changes);
+        // Nothing touches the copies until this refresh has been delivered
+        List<Movie> movies = Collections.unmodifiableList(new ArrayList<>(copies.values()));
+
+        CompletableFuture<List<Movie>> sorted = CompletableFuture.supplyAsync(() -> MovieViews.sort(movies), pool);
+        CompletableFuture<TreeMap<String, List<Movie>>> searchIndex =
+                CompletableFuture.supplyAsync(() -> MovieViews.indexTitles(movies), pool);
+        CompletableFuture<MovieViews.Statistics> statistics =
+                CompletableFuture.supplyAsync(() -> MovieViews.summarize(movies), pool);
+
+        CompletableFuture.allOf(sorted, searchIndex, statistics).whenComplete((ignored, error) -> mainExecutor.execute(() -> {
+            if (error != null) {
+                listener.onError("Failed to rebuild movie list: " + error.getMessage());
+                finishRefresh();
+            } else {
+                deliver(new MovieViews(sorted.join(), searchIndex.join(), statistics.join(), changes));
+            }
+        }));
+    }
+
+    private void updateCopies(List<MovieChange> changes) {
+        for (MovieChange change : changes) {
+            Movie movie = provider.getMovie(change.getId());
+            if (movie == null)
+                copies.remove(change.getId());
+            else
+                copies.put(movie.getId(), movie.copy());
+        }
+        // The first refresh, or the provider started over with a new listener
+        List<Movie> listed = provider.getMovies();
+        if (copies.size() != listed.size()) {
+            copies.clear();
+            for (Movie movie : listed)
+                copies.put(movie.getId(), movie.copy());
+        }
+    }
+
+    private void deliver(MovieViews views) {
+        refreshCount++;
+        listener.onViewsUpdated(views);
+        finishRefresh();
+    }
+
+    private void finishRefresh() {
+        refreshPending = false;
+        // Snapshots that arrived during the rebuild get one more, merged refresh
+        if (dirty)
+            onDataUpdated();
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.androidcicd.movie;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+// Views derived from one version of the movie list: the list sorted by title, a word prefix
+// search index over titles and summary statistics. Each part is built independently so they
+// can be computed in parallel. A refresh that did not ask for them carries only its changes.
+public class MovieViews {
+    public static final Comparator<Movie> BY_TITLE = (a, b) -> compareTitles(a.getTitle(), b.getTitle());
+
+    private static int compareTitles(String left, String right) {
+        if (left == null)
+            left = "";
+        if (right == null)
+            right = "";
+        int compare = left.compareToIgnoreCase(right);
+        return compare != 0 ? compare : left.compareTo(right);
+    }
+
+    public static class Statistics {
+        private final int count;
+        private final int minYear;
+        private final int maxYear;
+        private final Map<String, Integer> genreCounts;
+
+        Statistics(int count, int minYear, int maxYear, Map<String, Integer> genreCounts) {
+            this.count = count;
+            this.minYear = minYear;
+            this.maxYear = maxYear;
+            this.genreCounts = genreCounts;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getMinYear() {
+            return minYear;
+        }
+
+        public int getMaxYear() {
+            return maxYear;
+        }
+
+        public Map<String, Integer> getGenreCounts() {
+            return genreCounts;
+        }
+    }
+
+    private final List<Movie> sorted;
+    private final TreeMap<String, List<Movie>> searchIndex;
+    private final Statistics statistics;
+    private final List<MovieChange> changes;
+
+    public MovieViews(List<Movie> sorted, TreeMap<String, List<Movie>> searchIndex, Statistics statistics,
+                      List<MovieChange> changes) {
+        this.sorted = sorted;
+        this.searchIndex = searchIndex;
+        this.statistics = statistics;
+        this.changes = changes;
+    }
+
+    public MovieViews(List<MovieChange> changes) {
+        this(null, null, null, changes);
+    }
+
+    // movies must not change while the views are built; the conflater hands over copies
+    public static List<Movie> sort(List<Movie> movies) {
+        List<Movie> sorted = new ArrayList<>(movies);
+        Collections.sort(sorted, BY_TITLE);
+        return sorted;
+    }
+
+    // Lower case title word -> movies with that word in their title
+    public static TreeMap<String, List<Movie>> indexTitles(List<Movie> movies) {
+        TreeMap<String, List<Movie>> index = new TreeMap<>();
+        for (Movie movie : movies) {
+            String title = movie.getTitle();
+            if (title == null)
+                continue;
+            for (String word : title.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+                if (word.isEmpty())
+                    continue;
+                List<Movie> matches = index.get(word);
+                if (matches == null) {
+                    matches = new ArrayList<>(1);
+                    index.put(word, matches);
+                }
+                if (matches.isEmpty() || matches.get(matches.size() - 1) != movie)
+                    matches.add(movie);
+            }
+        }
+        return index;
+    }
+
+    public static Statistics summarize(List<Movie> movies) {
+        int minYear = Integer.MAX_VALUE;
+        int maxYear = Integer.MIN_VALUE;
+        Map<String, Integer> genreCounts = new HashMap<>();
+        for (Movie movie : movies) {
+            int year = movie.getYear();
+            String genre = movie.getGenre();
+            minYear = Math.min(minYear, year);
+            maxYear = Math.max(maxYear, year);
+            Integer count = genreCounts.get(genre);
+            genreCounts.put(genre, count == null ? 1 : count + 1);
+        }
+        if (movies.isEmpty())
+            minYear = maxYear = 0;
+        return new Statistics(movies.size(), minYear, maxYear, genreCounts);
+    }
+
+    // False when only the changes were requested
+    public boolean hasDerivedViews() {
+        return sorted != null;
+    }
+
+    public List<Movie> getSorted() {
+        checkDerivedViews();
+        return sorted;
+    }
+
+    public Statistics getStatistics() {
+        checkDerivedViews();
+        return statistics;
+    }
+
+    // Every snapshot change since the previous views, in order, for incremental consumers
+    public List<MovieChange> getChanges() {
+        return changes;
+    }
+
+    // Movies with a title word starting with prefix, in title order
+    public List<Movie> search(String prefix) {
+        checkDerivedViews();
+        String key = prefix.trim().toLowerCase(Locale.ROOT);
+        if (key.isEmpty())
+            return sorted;
+        SortedMap<String, List<Movie>> words = searchIndex.subMap(key, key + Character.MAX_VALUE);
+        Set<Movie> unique = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (List<Movie> movies : words.values())
+            unique.addAll(movies);
+        List<Movie> matches = new ArrayList<>(unique);
+        Collections.sort(matches, BY_TITLE);
+        return matches;
+    }
+
+    private void checkDerivedViews() {
+        if (sorted == null)
+            throw new IllegalStateException("Derived views were not requested");
+    }
+}
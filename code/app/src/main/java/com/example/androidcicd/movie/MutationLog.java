@@ -0,0 +1,148 @@
+package com.example.androidcicd.movie;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+// Append-only journal of pending movie mutations that survives process death.
+// Each queued mutation is written as a record, and committed ones are marked by an
+// acknowledgement record. The file is rewritten once acknowledged records dominate it.
+public class MutationLog {
+    private static final byte RECORD_MUTATION = 1;
+    private static final byte RECORD_ACK = 2;
+    private static final int MIN_COMPACTION_RECORDS = 64;
+
+    private final File file;
+    private final ArrayDeque<MovieMutation> pending = new ArrayDeque<>();
+    private DataOutputStream out;
+    private long nextSequence = 1;
+    private int acknowledgedRecords;
+
+    public MutationLog(File file) throws IOException {
+        this.file = file;
+        load();
+        compact();
+    }
+
+    public synchronized MovieMutation append(MovieMutation mutation) throws IOException {
+        MovieMutation sequenced = mutation.withSequence(nextSequence++);
+        writeMutation(out, sequenced);
+        out.flush();
+        pending.addLast(sequenced);
+        return sequenced;
+    }
+
+    // Oldest pending mutations, up to max of them, in the order they were appended
+    public synchronized List<MovieMutation> peek(int max) {
+        List<MovieMutation> batch = new ArrayList<>(Math.min(max, pending.size()));
+        Iterator<MovieMutation> iterator = pending.iterator();
+        while (batch.size() < max && iterator.hasNext())
+            batch.add(iterator.next());
+        return batch;
+    }
+
+    // Drops every pending mutation with a sequence number up to and including sequence
+    public synchronized void acknowledge(long sequence) throws IOException {
+        int dropped = 0;
+        while (!pending.isEmpty() && pending.peekFirst().getSequence() <= sequence) {
+            pending.removeFirst();
+            dropped++;
+        }
+        if (dropped == 0)
+            return;
+        out.writeByte(RECORD_ACK);
+        out.writeLong(sequence);
+        out.flush();
+        acknowledgedRecords += dropped;
+        if (acknowledgedRecords >= MIN_COMPACTION_RECORDS && acknowledgedRecords > pending.size())
+            compact();
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private void load() throws IOException {
+        if (!file.exists())
+            return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte record = in.readByte();
+                if (record == RECORD_MUTATION) {
+                    MovieMutation mutation = readMutation(in);
+                    pending.addLast(mutation);
+                    nextSequence = Math.max(nextSequence, mutation.getSequence() + 1);
+                } else if (record == RECORD_ACK) {
+                    long sequence = in.readLong();
+                    while (!pending.isEmpty() && pending.peekFirst().getSequence() <= sequence)
+                        pending.removeFirst();
+                } else {
+                    throw new IOException("Corrupt mutation log " + file);
+                }
+            }
+        } catch (EOFException e) {
+            // End of the log, or a record cut short by the process dying mid-write
+        }
+    }
+
+    // Rewrites the file with only the pending mutations
+    private void compact() throws IOException {
+        if (out != null)
+            out.close();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            for (MovieMutation mutation : pending)
+                writeMutation(tmpOut, mutation);
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("Could not replace mutation log " + file);
+        acknowledgedRecords = 0;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    private static void writeMutation(DataOutputStream out, MovieMutation mutation) throws IOException {
+        out.writeByte(RECORD_MUTATION);
+        out.writeLong(mutation.getSequence());
+        out.writeByte(mutation.getType().ordinal());
+        out.writeUTF(mutation.getMovieId());
+        writeNullableString(out, mutation.getTitle());
+        writeNullableString(out, mutation.getGenre());
+        out.writeInt(mutation.getYear());
+        writeNullableString(out, mutation.getPosterUrl());
+    }
+
+    private static MovieMutation readMutation(DataInputStream in) throws IOException {
+        long sequence = in.readLong();
+        MovieMutation.Type type = MovieMutation.Type.values()[in.readByte()];
+        String movieId = in.readUTF();
+        String title = readNullableString(in);
+        String genre = readNullableString(in);
+        int year = in.readInt();
+        String posterUrl = readNullableString(in);
+        return new MovieMutation(sequence, type, movieId, title, genre, year, posterUrl);
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.androidcicd.movie;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Drains a MutationLog into the backend. Mutations queued close together are grouped into
+// one batched commit, and failed commits are retried with jittered exponential backoff.
+// A batch the backend rejects outright is split in half until the mutation at fault is found,
+// which is then dropped and reported so it cannot hold up everything queued behind it.
+// All queue state is only touched on the scheduler thread.
+public class MutationQueue {
+    // Firestore rejects write batches with more than 500 operations
+    public static final int MAX_BATCH_SIZE = 500;
+    private static final long LINGER_MILLIS = 50;
+    private static final long RATE_WINDOW_MILLIS = 60_000;
+
+    public interface Committer {
+        void commit(List<MovieMutation> batch, CommitCallback callback);
+    }
+
+    public interface CommitCallback {
+        void onCommitted();
+        // The commit may succeed if tried again, as when offline
+        void onError(String error);
+        // The commit will never succeed as it stands, as when it breaks the security rules
+        void onRejected(String error);
+    }
+
+    public interface RejectionListener {
+        void onRejected(MovieMutation mutation, String error);
+    }
+
+    private final MutationLog log;
+    private final Committer committer;
+    private final ScheduledExecutorService scheduler;
+    private final Backoff backoff;
+
+    private boolean drainScheduled;
+    private boolean commitInFlight;
+    private int failedAttempts;
+    // Batches are smaller than MAX_BATCH_SIZE while a rejected batch is being split, until the
+    // mutation at fault is dropped or every mutation up to suspectSequence has been committed
+    private int batchLimit = MAX_BATCH_SIZE;
+    private long suspectSequence = -1;
+    private volatile RejectionListener rejectionListener;
+    // (commit time, mutations committed) pairs inside the rate window
+    private final ArrayDeque<long[]> recentCommits = new ArrayDeque<>();
+    private volatile long committedCount;
+    private volatile long failedCommitCount;
+    private volatile long rejectedCount;
+    private volatile String lastError;
+
+    public MutationQueue(MutationLog log, Committer committer) {
+        this(log, committer, Executors.newSingleThreadScheduledExecutor(),
+                new Backoff(500, 60_000, new Random()));
+    }
+
+    public MutationQueue(MutationLog log, Committer committer, ScheduledExecutorService scheduler, Backoff backoff) {
+        this.log = log;
+        this.committer = committer;
+        this.scheduler = scheduler;
+        this.backoff = backoff;
+        // Pick up anything left over from a previous process
+        scheduler.execute(() -> scheduleDrain(0));
+    }
+
+    public void enqueue(MovieMutation mutation) {
+        scheduler.execute(() -> {
+            try {
+                log.append(mutation);
+            } catch (IOException e) {
+                lastError = "Could not queue mutation: " + e.getMessage();
+                return;
+            }
+            scheduleDrain(LINGER_MILLIS);
+        });
+    }
+
+    public int getQueueDepth() {
+        return log.size();
+    }
+
+    public long getCommittedCount() {
+        return committedCount;
+    }
+
+    public long getFailedCommitCount() {
+        return failedCommitCount;
+    }
+
+    // Mutations dropped because the backend would never accept them
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    // Called on the queue's own thread for every mutation dropped
+    public void setRejectionListener(RejectionListener rejectionListener) {
+        this.rejectionListener = rejectionListener;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    // Mutations committed per second over the last minute
+    public double getDrainRate() {
+        long committed = 0;
+        long cutoff = System.currentTimeMillis() - RATE_WINDOW_MILLIS;
+        synchronized (recentCommits) {
+            for (long[] commit : recentCommits) {
+                if (commit[0] >= cutoff)
+                    committed += commit[1];
+            }
+        }
+        return committed * 1000.0 / RATE_WINDOW_MILLIS;
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    private void scheduleDrain(long delayMillis) {
+        if (drainScheduled || commitInFlight)
+            return;
+        drainScheduled = true;
+        scheduler.schedule(this::drain, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void drain() {
+        drainScheduled = false;
+        List<MovieMutation> batch = log.peek(batchLimit);
+        if (batch.isEmpty())
+            return;
+        commitInFlight = true;
+        try {
+            committer.commit(batch, new CommitCallback() {
+                @Override
+                public void onCommitted() {
+                    scheduler.execute(() -> committed(batch));
+                }
+
+                @Override
+                public void onError(String error) {
+                    scheduler.execute(() -> failed(error));
+                }
+
+                @Override
+                public void onRejected(String error) {
+                    scheduler.execute(() -> rejected(batch, error));
+                }
+            });
+        } catch (RuntimeException e) {
+            // No callback will come, so retry as if the commit had failed
+            failed(e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+    }
+
+    private void committed(List<MovieMutation> batch) {
+        commitInFlight = false;
+        failedAttempts = 0;
+        long lastSequence = batch.get(batch.size() - 1).getSequence();
+        if (lastSequence >= suspectSequence)
+            batchLimit = MAX_BATCH_SIZE;
+        try {
+            log.acknowledge(lastSequence);
+        } catch (IOException e) {
+            // The batch is committed either way; at worst it is written again after a restart
+            lastError = "Could not acknowledge mutations: " + e.getMessage();
+        }
+        committedCount += batch.size();
+        long now = System.currentTimeMillis();
+        synchronized (recentCommits) {
+            recentCommits.addLast(new long[]{now, batch.size()});
+            while (recentCommits.peekFirst()[0] < now - RATE_WINDOW_MILLIS)
+                recentCommits.removeFirst();
+        }
+        scheduleDrain(0);
+    }
+
+    private void failed(String error) {
+        commitInFlight = false;
+        failedCommitCount++;
+        lastError = error;
+        scheduleDrain(backoff.delayMillis(failedAttempts++));
+    }
+
+    private void rejected(List<MovieMutation> batch, String error) {
+        commitInFlight = false;
+        failedAttempts = 0;
+        lastError = error;
+        if (batch.size() > 1) {
+            // Commits are atomic, so try each half on its own to narrow down the culprit
+            suspectSequence = Math.max(suspectSequence, batch.get(batch.size() - 1).getSequence());
+            batchLimit = (batch.size() + 1) / 2;
+            scheduleDrain(0);
+            return;
+        }
+        MovieMutation mutation = batch.get(0);
+        try {
+            log.acknowledge(mutation.getSequence());
+        } catch (IOException e) {
+            lastError = "Could not drop rejected mutation: " + e.getMessage();
+            scheduleDrain(backoff.delayMillis(failedAttempts++));
+            return;
+        }
+        rejectedCount++;
+        // Found it; anything else at fault is split out again the same way
+        batchLimit = MAX_BATCH_SIZE;
+        RejectionListener listener = rejectionListener;
+        if (listener != null)
+            listener.onRejected(mutation, error);
+        scheduleDrain(0);
+    }
+}
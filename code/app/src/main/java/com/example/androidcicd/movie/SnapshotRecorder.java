@@ -0,0 +1,49 @@
+package com.example.androidcicd.movie;
+
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+
+import java.io.File;
+import java.io.IOException;
+
+// Captures the change stream of a movies query (normally the movies collection on the
+// local emulator) into a SnapshotRecording that SnapshotReplayer can feed back later
+public class SnapshotRecorder {
+    private final SnapshotRecording recording;
+    private ListenerRegistration registration;
+    private long startNanos;
+    private volatile IOException failure;
+
+    public SnapshotRecorder(File file) throws IOException {
+        recording = new SnapshotRecording(file);
+    }
+
+    public void start(Query query) {
+        startNanos = System.nanoTime();
+        registration = query.addSnapshotListener((snapshot, error) -> {
+            if (failure != null)
+                return;
+            if (error != null) {
+                // The listener is dead after an error, so the recording ends here
+                failure = new IOException("Snapshot listener failed: " + error.getMessage(), error);
+                return;
+            }
+            try {
+                long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+                recording.write(elapsedMillis, MovieProvider.toChanges(snapshot));
+            } catch (IOException e) {
+                failure = e;
+            }
+        });
+    }
+
+    // Stops listening and closes the recording, reporting any error hit while listening or
+    // writing it
+    public void stop() throws IOException {
+        if (registration != null)
+            registration.remove();
+        recording.close();
+        if (failure != null)
+            throw failure;
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.androidcicd.movie;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Compact file format for recorded snapshot streams: a gzipped sequence of frames, each
+// holding the time since recording started and the document changes of one snapshot
+public class SnapshotRecording {
+    private static final int MAGIC = 0x4d565253; // "MVRS"
+    private static final int VERSION = 1;
+
+    public static class Frame {
+        private final long elapsedMillis;
+        private final List<MovieChange> changes;
+
+        public Frame(long elapsedMillis, List<MovieChange> changes) {
+            this.elapsedMillis = elapsedMillis;
+            this.changes = changes;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public List<MovieChange> getChanges() {
+            return changes;
+        }
+    }
+
+    private final DataOutputStream out;
+
+    public SnapshotRecording(File file) throws IOException {
+        // Sync flushing keeps every written frame readable even if recording is cut short
+        out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file), true)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    public synchronized void write(long elapsedMillis, List<MovieChange> changes) throws IOException {
+        out.writeLong(elapsedMillis);
+        out.writeInt(changes.size());
+        for (MovieChange change : changes) {
+            out.writeByte(change.getType().ordinal());
+            out.writeUTF(change.getId());
+            writeNullableString(change.getTitle());
+            writeNullableString(change.getGenre());
+            out.writeInt(change.getYear());
+            writeNullableString(change.getPosterUrl());
+        }
+        out.flush();
+    }
+
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    public static List<Frame> read(File file) throws IOException {
+        List<Frame> frames = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a snapshot recording: " + file);
+            while (true) {
+                long elapsedMillis = in.readLong();
+                int count = in.readInt();
+                List<MovieChange> changes = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    MovieChange.Type type = MovieChange.Type.values()[in.readByte()];
+                    String id = in.readUTF();
+                    String title = readNullableString(in);
+                    String genre = readNullableString(in);
+                    int year = in.readInt();
+                    String posterUrl = readNullableString(in);
+                    changes.add(new MovieChange(type, id, title, genre, year, posterUrl));
+                }
+                frames.add(new Frame(elapsedMillis, changes));
+            }
+        } catch (EOFException e) {
+            // End of the recording, or a frame cut short when recording stopped abruptly
+        }
+        return frames;
+    }
+
+    private void writeNullableString(String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
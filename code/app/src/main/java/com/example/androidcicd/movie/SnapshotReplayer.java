@@ -0,0 +1,69 @@
+package com.example.androidcicd.movie;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Feeds a recorded snapshot stream back into a MovieProvider so the cost of applying
+// changes and updating the UI can be measured deterministically, without a backend.
+// Recordings hold changes already decoded from Firestore documents, and Firestore's
+// snapshot classes cannot be built outside the SDK, so decoding is not replayed;
+// MovieIdentityMapTest measures it against mocked snapshots instead.
+public class SnapshotReplayer {
+    // Where replay reads the time and waits, so tests can run it on a fake clock
+    public interface Clock {
+        long nanoTime();
+        void sleep(long nanos) throws InterruptedException;
+    }
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleep(long nanos) throws InterruptedException {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    };
+
+    private final List<SnapshotRecording.Frame> frames;
+    private final Clock clock;
+
+    public SnapshotReplayer(File file) throws IOException {
+        this(file, SYSTEM_CLOCK);
+    }
+
+    public SnapshotReplayer(File file, Clock clock) throws IOException {
+        frames = SnapshotRecording.read(file);
+        this.clock = clock;
+    }
+
+    public int getFrameCount() {
+        return frames.size();
+    }
+
+    public int getChangeCount() {
+        int count = 0;
+        for (SnapshotRecording.Frame frame : frames)
+            count += frame.getChanges().size();
+        return count;
+    }
+
+    // Replays every frame on the calling thread. A speed of 1 keeps the recorded timing,
+    // 10 plays ten times faster and 0 or less applies frames back to back.
+    public void replay(MovieProvider provider, double speed, MovieProvider.DataStatus dataStatus) throws InterruptedException {
+        long startNanos = clock.nanoTime();
+        for (SnapshotRecording.Frame frame : frames) {
+            if (speed > 0) {
+                long dueNanos = (long) (frame.getElapsedMillis() * 1_000_000 / speed);
+                long waitNanos = dueNanos - (clock.nanoTime() - startNanos);
+                if (waitNanos > 0)
+                    clock.sleep(waitNanos);
+            }
+            provider.applyChanges(frame.getChanges(), dataStatus);
+        }
+    }
+}
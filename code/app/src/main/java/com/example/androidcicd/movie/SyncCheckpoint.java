@@ -0,0 +1,89 @@
+package com.example.androidcicd.movie;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+// Persists how far this device has synced the movies collection: the newest server
+// update time it has seen, how many live movies it held after its last complete sync, and
+// when tombstones were last compacted
+public class SyncCheckpoint {
+    private final File file;
+    private long highWaterMark;
+    private long lastCompaction;
+    private int syncedCount = -1;
+
+    public SyncCheckpoint(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                highWaterMark = in.readLong();
+                lastCompaction = in.readLong();
+                syncedCount = in.readInt();
+            } catch (EOFException e) {
+                // An empty or cut short checkpoint, or one written before the synced count was
+                // kept, just means syncing everything again
+                highWaterMark = 0;
+                syncedCount = -1;
+            }
+        }
+    }
+
+    // Server time in milliseconds of the newest change seen, or 0 before the first sync
+    public synchronized long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    // Only ever moves forward, so out of order snapshots cannot skip changes
+    public synchronized void advanceHighWaterMark(long millis) throws IOException {
+        if (millis <= highWaterMark)
+            return;
+        highWaterMark = millis;
+        save();
+    }
+
+    // Records a snapshot from the server after which the provider held syncedCount live
+    // movies, and so a complete copy of the collection
+    public synchronized void recordSync(long millis, int syncedCount) throws IOException {
+        if (millis <= highWaterMark && syncedCount == this.syncedCount)
+            return;
+        highWaterMark = Math.max(highWaterMark, millis);
+        this.syncedCount = syncedCount;
+        save();
+    }
+
+    // Live movies held after the last complete sync, or -1 if there has not been one
+    public synchronized int getSyncedCount() {
+        return syncedCount;
+    }
+
+    public synchronized void reset() throws IOException {
+        highWaterMark = 0;
+        syncedCount = -1;
+        save();
+    }
+
+    public synchronized long getLastCompaction() {
+        return lastCompaction;
+    }
+
+    public synchronized void setLastCompaction(long millis) throws IOException {
+        lastCompaction = millis;
+        save();
+    }
+
+    private void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+            out.writeLong(highWaterMark);
+            out.writeLong(lastCompaction);
+            out.writeInt(syncedCount);
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("Could not save sync checkpoint " + file);
+    }
+}
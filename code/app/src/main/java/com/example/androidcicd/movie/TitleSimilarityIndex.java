@@ -0,0 +1,346 @@
+package com.example.androidcicd.movie;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Finds existing titles that are likely duplicates of a new one without comparing against
+// every title. Titles are normalized, split into character trigrams and summarized by a
+// MinHash signature; locality sensitive hashing over bands of the signature narrows the
+// comparison down to a handful of candidates, whose trigrams are then compared exactly.
+// Titles keep only their band hashes and hashed trigrams, in flat int arrays rather than
+// collections, so 100k titles take around 45 MB.
+public class TitleSimilarityIndex {
+    // A pair with similarity s becomes a candidate with probability 1 - (1 - s^ROWS)^BANDS:
+    // 89% at the threshold, 99% at 0.7 and 12% at 0.3. Eight bands of four rows only reached
+    // 67% at the threshold.
+    private static final int HASHES = 64;
+    private static final int BANDS = 16;
+    private static final int ROWS = HASHES / BANDS;
+    // Jaccard similarity of trigram sets at which two titles count as duplicates
+    private static final double THRESHOLD = 0.6;
+    private static final int NONE = -1;
+
+    private static final Pattern TRAILING_ARTICLE = Pattern.compile("^(.*),\\s*(the|a|an)$");
+    private static final Pattern LEADING_ARTICLE = Pattern.compile("^(the|a|an) ");
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_ALPHANUMERIC = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final int[] SEEDS = new int[HASHES];
+    static {
+        Random random = new Random(301);
+        for (int i = 0; i < HASHES; i++)
+            SEEDS[i] = random.nextInt();
+    }
+
+    public static class Match {
+        private final String id;
+        private final String title;
+        private final double similarity;
+
+        Match(String id, String title, double similarity) {
+            this.id = id;
+            this.title = title;
+            this.similarity = similarity;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public double getSimilarity() {
+            return similarity;
+        }
+    }
+
+    // Each title has a slot; slots freed by removed titles are reused
+    private String[] ids = new String[16];
+    private String[] titles = new String[16];
+    // Each title's distinct trigrams, sorted, to check candidates against exactly
+    private int[][] trigrams = new int[16][];
+    private int slotsUsed;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int size;
+    // id -> slot + 1, open addressed, 0 where empty
+    private int[] slotTable = new int[32];
+    // A posting is a title in one band, numbered slot * BANDS + band. Postings in the same
+    // bucket are chained through nextPosting.
+    private int[] bandHashes = new int[16 * BANDS];
+    private int[] nextPosting = new int[16 * BANDS];
+    // (band, band hash) -> first posting in the bucket + 1, open addressed, 0 where empty
+    private int[] bucketTable = new int[64];
+    private int bucketCount;
+    private final int[] signature = new int[HASHES];
+
+    // Lower case, strip accents and punctuation, and drop a leading or trailing article so
+    // "The Matrix", "the matrix " and "Matrix, The" all become "matrix"
+    public static String normalize(String title) {
+        String normalized = title.trim().toLowerCase(Locale.ROOT);
+        Matcher trailing = TRAILING_ARTICLE.matcher(normalized);
+        if (trailing.matches())
+            normalized = trailing.group(2) + " " + trailing.group(1);
+        normalized = DIACRITICS.matcher(Normalizer.normalize(normalized, Normalizer.Form.NFKD)).replaceAll("");
+        normalized = NON_ALPHANUMERIC.matcher(normalized).replaceAll(" ").trim();
+        return LEADING_ARTICLE.matcher(normalized).replaceFirst("");
+    }
+
+    // Adds the title for id, replacing whatever title id had before
+    public void add(String id, String title) {
+        remove(id);
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : newSlot();
+        ids[slot] = id;
+        titles[slot] = title;
+        String normalized = normalize(title);
+        trigrams[slot] = trigrams(normalized);
+        if (++size * 2 > slotTable.length)
+            slotTable = rehash(slotTable, false);
+        slotTable[emptyPosition(slotTable, id.hashCode())] = slot + 1;
+
+        signature(trigrams[slot], signature);
+        for (int band = 0; band < BANDS; band++) {
+            int posting = slot * BANDS + band;
+            bandHashes[posting] = bandHash(signature, band);
+            int position = findBucket(band, bandHashes[posting]);
+            if (position < 0) {
+                if (++bucketCount * 2 > bucketTable.length) {
+                    bucketTable = rehash(bucketTable, true);
+                    position = findBucket(band, bandHashes[posting]);
+                }
+                position = -position - 1;
+                nextPosting[posting] = NONE;
+            } else {
+                nextPosting[posting] = bucketTable[position] - 1;
+            }
+            bucketTable[position] = posting + 1;
+        }
+    }
+
+    public void remove(String id) {
+        int position = findSlot(id);
+        if (position < 0)
+            return;
+        int slot = slotTable[position] - 1;
+        vacate(slotTable, position, false);
+        for (int band = 0; band < BANDS; band++) {
+            int posting = slot * BANDS + band;
+            int bucket = findBucket(band, bandHashes[posting]);
+            int first = bucketTable[bucket] - 1;
+            if (first == posting && nextPosting[posting] == NONE) {
+                vacate(bucketTable, bucket, true);
+                bucketCount--;
+            } else if (first == posting) {
+                bucketTable[bucket] = nextPosting[posting] + 1;
+            } else {
+                int previous = first;
+                while (nextPosting[previous] != posting)
+                    previous = nextPosting[previous];
+                nextPosting[previous] = nextPosting[posting];
+            }
+        }
+        ids[slot] = null;
+        titles[slot] = null;
+        trigrams[slot] = null;
+        if (freeCount == freeSlots.length)
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        freeSlots[freeCount++] = slot;
+        size--;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Indexed titles that are likely duplicates of title, most similar first
+    public List<Match> findSimilar(String title) {
+        String query = normalize(title);
+        if (query.isEmpty())
+            return Collections.emptyList();
+        int[] queryTrigrams = trigrams(query);
+        int[] signature = signature(queryTrigrams, new int[HASHES]);
+
+        int[] candidates = new int[BANDS];
+        int candidateCount = 0;
+        for (int band = 0; band < BANDS; band++) {
+            int bucket = findBucket(band, bandHash(signature, band));
+            if (bucket < 0)
+                continue;
+            for (int posting = bucketTable[bucket] - 1; posting != NONE; posting = nextPosting[posting]) {
+                if (candidateCount == candidates.length)
+                    candidates = Arrays.copyOf(candidates, candidateCount * 2);
+                candidates[candidateCount++] = posting / BANDS;
+            }
+        }
+        Arrays.sort(candidates, 0, candidateCount);
+
+        List<Match> matches = new ArrayList<>();
+        for (int i = 0; i < candidateCount; i++) {
+            int slot = candidates[i];
+            if (i > 0 && slot == candidates[i - 1])
+                continue;
+            double similarity = similarity(queryTrigrams, trigrams[slot]);
+            if (similarity >= THRESHOLD)
+                matches.add(new Match(ids[slot], titles[slot], similarity));
+        }
+        Collections.sort(matches, (a, b) -> Double.compare(b.similarity, a.similarity));
+        return matches;
+    }
+
+    private int newSlot() {
+        if (slotsUsed == ids.length) {
+            ids = Arrays.copyOf(ids, slotsUsed * 2);
+            titles = Arrays.copyOf(titles, slotsUsed * 2);
+            trigrams = Arrays.copyOf(trigrams, slotsUsed * 2);
+            bandHashes = Arrays.copyOf(bandHashes, slotsUsed * 2 * BANDS);
+            nextPosting = Arrays.copyOf(nextPosting, slotsUsed * 2 * BANDS);
+        }
+        return slotsUsed++;
+    }
+
+    // Position of id in slotTable, or -1
+    private int findSlot(String id) {
+        int mask = slotTable.length - 1;
+        for (int position = mix(id.hashCode()) & mask; slotTable[position] != 0; position = (position + 1) & mask) {
+            if (ids[slotTable[position] - 1].equals(id))
+                return position;
+        }
+        return -1;
+    }
+
+    // Position of the bucket in bucketTable, or -(the empty position it would take) - 1
+    private int findBucket(int band, int hash) {
+        int mask = bucketTable.length - 1;
+        int position = bucketPosition(band, hash) & mask;
+        for (; bucketTable[position] != 0; position = (position + 1) & mask) {
+            int posting = bucketTable[position] - 1;
+            if (posting % BANDS == band && bandHashes[posting] == hash)
+                return position;
+        }
+        return -position - 1;
+    }
+
+    private static int emptyPosition(int[] table, int hash) {
+        int mask = table.length - 1;
+        int position = mix(hash) & mask;
+        while (table[position] != 0)
+            position = (position + 1) & mask;
+        return position;
+    }
+
+    private int home(int entry, boolean buckets) {
+        int value = entry - 1;
+        return buckets ? bucketPosition(value % BANDS, bandHashes[value]) : mix(ids[value].hashCode());
+    }
+
+    private static int bucketPosition(int band, int hash) {
+        return mix(hash + band * 0x9E3779B9);
+    }
+
+    private int[] rehash(int[] table, boolean buckets) {
+        int[] rehashed = new int[table.length * 2];
+        int mask = rehashed.length - 1;
+        for (int entry : table) {
+            if (entry == 0)
+                continue;
+            int position = home(entry, buckets) & mask;
+            while (rehashed[position] != 0)
+                position = (position + 1) & mask;
+            rehashed[position] = entry;
+        }
+        return rehashed;
+    }
+
+    // Empties a position, moving later entries of the same probe run back into the gap
+    private void vacate(int[] table, int position, boolean buckets) {
+        int mask = table.length - 1;
+        int hole = position;
+        for (int i = (position + 1) & mask; table[i] != 0; i = (i + 1) & mask) {
+            int home = home(table[i], buckets) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                table[hole] = table[i];
+                hole = i;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    // Jaccard similarity of two sorted trigram sets, or 0 once it cannot reach THRESHOLD
+    private static double similarity(int[] a, int[] b) {
+        // shared / (a + b - shared) >= THRESHOLD needs this many shared trigrams
+        double needed = THRESHOLD * (a.length + b.length) / (1 + THRESHOLD);
+        int shared = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (shared + Math.min(a.length - i, b.length - j) < needed)
+                return 0;
+            if (a[i] == b[j]) {
+                shared++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return (double) shared / (a.length + b.length - shared);
+    }
+
+    // The distinct character trigrams of the space padded title, hashed and sorted
+    private static int[] trigrams(String normalized) {
+        int count = normalized.length();
+        int[] trigrams = new int[count];
+        long window = ' ';
+        for (int i = 0; i <= count; i++) {
+            window = window << 16 | (i < count ? normalized.charAt(i) : ' ');
+            if (i > 0)
+                trigrams[i - 1] = mix((int) (window ^ window >>> 32));
+        }
+        Arrays.sort(trigrams);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || trigrams[i] != trigrams[i - 1])
+                trigrams[distinct++] = trigrams[i];
+        }
+        return distinct == count ? trigrams : Arrays.copyOf(trigrams, distinct);
+    }
+
+    // MinHash over the title's trigrams
+    private static int[] signature(int[] trigrams, int[] signature) {
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (int trigram : trigrams) {
+            for (int i = 0; i < HASHES; i++) {
+                int hash = mix(trigram ^ SEEDS[i]);
+                if (hash < signature[i])
+                    signature[i] = hash;
+            }
+        }
+        return signature;
+    }
+
+    private static int bandHash(int[] signature, int band) {
+        int hash = band;
+        for (int row = band * ROWS; row < (band + 1) * ROWS; row++)
+            hash = hash * 0x9E3779B1 + signature[row];
+        return mix(hash);
+    }
+
+    // Murmur3 finalizer
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
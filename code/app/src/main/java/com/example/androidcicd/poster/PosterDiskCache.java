@@ -0,0 +1,139 @@
+package com.example.androidcicd.poster;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Size bounded, least recently used cache of raw poster bytes kept in a directory.
+// Entries are filled from the poster url (http, https or file) on a miss.
+public class PosterDiskCache {
+    private static final int TIMEOUT_MILLIS = 10_000;
+
+    private final File directory;
+    private final long maxBytes;
+    // file name -> size in bytes, in access order
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    public PosterDiskCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IllegalStateException("Could not create poster cache at " + directory);
+
+        // Rebuild the index from a previous run, oldest first
+        File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+            for (File file : files) {
+                if (file.getName().endsWith(".tmp")) {
+                    file.delete();
+                } else {
+                    entries.put(file.getName(), file.length());
+                    size += file.length();
+                }
+            }
+        }
+        trim();
+    }
+
+    // Returns the cached file for url, or null if it is not cached
+    public synchronized File get(String url) {
+        String name = keyFor(url);
+        if (entries.get(name) == null)
+            return null;
+        File file = new File(directory, name);
+        if (!file.exists()) {
+            size -= entries.remove(name);
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    // Returns the cached file for url, downloading it first if needed
+    public File getOrFetch(String url) throws IOException {
+        File cached = get(url);
+        if (cached != null)
+            return cached;
+
+        String name = keyFor(url);
+        File tmp = File.createTempFile(name, ".tmp", directory);
+        try {
+            URLConnection connection = new URL(url).openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            if (connection instanceof HttpURLConnection) {
+                int code = ((HttpURLConnection) connection).getResponseCode();
+                if (code != HttpURLConnection.HTTP_OK)
+                    throw new IOException("Poster request failed with HTTP " + code + ": " + url);
+            }
+            try (InputStream in = connection.getInputStream();
+                 OutputStream out = new FileOutputStream(tmp)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (Thread.currentThread().isInterrupted())
+                        throw new IOException("Poster request cancelled: " + url);
+                    out.write(buffer, 0, read);
+                }
+            }
+            return put(name, tmp);
+        } finally {
+            if (tmp.exists())
+                tmp.delete();
+        }
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    private synchronized File put(String name, File tmp) throws IOException {
+        File file = new File(directory, name);
+        Long previous = entries.remove(name);
+        if (previous != null)
+            size -= previous;
+        if (file.exists() && !file.delete() || !tmp.renameTo(file))
+            throw new IOException("Could not store poster " + name);
+        entries.put(name, file.length());
+        size += file.length();
+        trim();
+        return file;
+    }
+
+    private synchronized void trim() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        // Always keep the most recent entry, even if it alone exceeds the limit
+        while (size > maxBytes && entries.size() > 1 && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            new File(directory, eldest.getKey()).delete();
+            size -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    static String keyFor(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+                builder.append(String.format("%02x", b));
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
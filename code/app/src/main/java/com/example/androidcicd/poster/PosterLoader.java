@@ -0,0 +1,163 @@
+package com.example.androidcicd.poster;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.androidcicd.R;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Loads movie posters into list rows. Bitmaps are decoded off the main thread, downsampled
+// to the size of the target view and kept in a memory LRU in front of a disk LRU.
+public class PosterLoader {
+    private static final long DISK_CACHE_BYTES = 32L * 1024 * 1024;
+    private static PosterLoader posterLoader;
+
+    // Turns a cached poster file into a bitmap of about the requested size
+    public interface Decoder {
+        Bitmap decode(File file, int width, int height);
+    }
+
+    private final LruCache<String, Bitmap> memoryCache;
+    // Opened on the executor, since reading the index lists and deletes files
+    private final Future<PosterDiskCache> diskCache;
+    private final ExecutorService executor;
+    private final Executor mainThread;
+    private final Decoder decoder;
+    private final int defaultWidth;
+    private final int defaultHeight;
+
+    private PosterLoader(Context context) {
+        this(() -> new PosterDiskCache(new File(context.getCacheDir(), "posters"), DISK_CACHE_BYTES),
+                newMemoryCache(), Executors.newFixedThreadPool(2), new Handler(Looper.getMainLooper())::post,
+                PosterLoader::decodeSampled,
+                context.getResources().getDimensionPixelSize(R.dimen.poster_width),
+                context.getResources().getDimensionPixelSize(R.dimen.poster_height));
+    }
+
+    // Loads run on executor, which opens the disk cache first, and bind through mainThread
+    public PosterLoader(Callable<PosterDiskCache> openDiskCache, LruCache<String, Bitmap> memoryCache,
+                        ExecutorService executor, Executor mainThread, Decoder decoder, int defaultWidth, int defaultHeight) {
+        this.memoryCache = memoryCache;
+        this.executor = executor;
+        this.mainThread = mainThread;
+        this.decoder = decoder;
+        this.defaultWidth = defaultWidth;
+        this.defaultHeight = defaultHeight;
+        diskCache = executor.submit(openDiskCache);
+    }
+
+    private static LruCache<String, Bitmap> newMemoryCache() {
+        // Use an eighth of the heap for decoded bitmaps, measured in kilobytes
+        int maxKilobytes = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+        return new LruCache<String, Bitmap>(maxKilobytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+    }
+
+    public static PosterLoader getInstance(Context context) {
+        if (posterLoader == null)
+            posterLoader = new PosterLoader(context.getApplicationContext());
+        return posterLoader;
+    }
+
+    // Binds the poster at url to view, cancelling whatever load the (recycled) view had before
+    public void load(String url, ImageView view) {
+        cancel(view);
+        if (url == null || url.isEmpty()) {
+            view.setImageDrawable(null);
+            return;
+        }
+
+        int width = view.getLayoutParams() != null && view.getLayoutParams().width > 0
+                ? view.getLayoutParams().width : defaultWidth;
+        int height = view.getLayoutParams() != null && view.getLayoutParams().height > 0
+                ? view.getLayoutParams().height : defaultHeight;
+        String key = url + "@" + width + "x" + height;
+
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+
+        view.setImageDrawable(null);
+        Request request = new Request();
+        view.setTag(R.id.poster_request, request);
+        request.future = executor.submit(() -> {
+            Bitmap bitmap;
+            try {
+                File file = diskCache.get().getOrFetch(url);
+                bitmap = decoder.decode(file, width, height);
+            } catch (IOException | ExecutionException e) {
+                // A cancelled load is not worth a warning
+                if (!Thread.currentThread().isInterrupted())
+                    Log.w("PosterLoader", "Could not load poster " + url, e);
+                return;
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (bitmap == null || Thread.currentThread().isInterrupted())
+                return;
+            memoryCache.put(key, bitmap);
+            mainThread.execute(() -> {
+                // Only bind if the view has not been recycled for another row meanwhile
+                if (view.getTag(R.id.poster_request) == request) {
+                    view.setImageBitmap(bitmap);
+                    view.setTag(R.id.poster_request, null);
+                }
+            });
+        });
+    }
+
+    public void cancel(ImageView view) {
+        Object tag = view.getTag(R.id.poster_request);
+        if (tag instanceof Request) {
+            Future<?> future = ((Request) tag).future;
+            if (future != null)
+                future.cancel(true);
+        }
+        view.setTag(R.id.poster_request, null);
+    }
+
+    private static Bitmap decodeSampled(File file, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, width, height);
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
+    // Largest power of two that keeps both decoded dimensions at or above the requested ones
+    public static int calculateInSampleSize(int width, int height, int requestedWidth, int requestedHeight) {
+        int sampleSize = 1;
+        if (width <= 0 || height <= 0 || requestedWidth <= 0 || requestedHeight <= 0)
+            return sampleSize;
+        while (width / (sampleSize * 2) >= requestedWidth && height / (sampleSize * 2) >= requestedHeight)
+            sampleSize *= 2;
+        return sampleSize;
+    }
+
+    private static class Request {
+        private volatile Future<?> future;
+    }
+}
@@ -0,0 +1,299 @@
+package com.example.androidcicd;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.example.androidcicd.movie.CatalogSummary;
+import com.example.androidcicd.movie.Movie;
+import com.example.androidcicd.movie.MovieChange;
+import com.example.androidcicd.movie.MovieMutation;
+import com.example.androidcicd.movie.MovieProvider;
+import com.example.androidcicd.movie.MutationQueue;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CatalogSummaryTest {
+    private FirebaseFirestore mockFirestore;
+    private CollectionReference mockMovieCollection;
+    private CollectionReference mockSummaryCollection;
+    private DocumentReference mockSummaryChunk;
+    private WriteBatch mockBatch;
+    private MovieProvider movieProvider;
+    private CatalogSummary catalogSummary;
+    private QuerySnapshot summaryRead;
+    private Task<Void> commitTask;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        mockFirestore = mock(FirebaseFirestore.class);
+        mockMovieCollection = mock(CollectionReference.class);
+        mockSummaryCollection = mock(CollectionReference.class);
+        when(mockFirestore.collection("movies")).thenReturn(mockMovieCollection);
+        when(mockFirestore.collection(CatalogSummary.COLLECTION)).thenReturn(mockSummaryCollection);
+        when(mockMovieCollection.getFirestore()).thenReturn(mockFirestore);
+        when(mockSummaryCollection.getFirestore()).thenReturn(mockFirestore);
+        mockSummaryChunk = mock(DocumentReference.class);
+        when(mockSummaryCollection.document(anyString())).thenReturn(mockSummaryChunk);
+        Task<QuerySnapshot> summaryTask = mock(Task.class);
+        when(mockSummaryCollection.get()).thenReturn(summaryTask);
+        when(summaryTask.addOnSuccessListener(any())).thenAnswer(invocation -> {
+            ((OnSuccessListener<QuerySnapshot>) invocation.getArgument(0)).onSuccess(summaryRead);
+            return summaryTask;
+        });
+        when(summaryTask.addOnFailureListener(any())).thenReturn(summaryTask);
+
+        mockBatch = mock(WriteBatch.class);
+        when(mockFirestore.batch()).thenReturn(mockBatch);
+        commitTask = mock(Task.class);
+        when(mockBatch.commit()).thenReturn(commitTask);
+        when(mockSummaryChunk.set(anyMap())).thenReturn(commitTask);
+        when(commitTask.addOnSuccessListener(any())).thenAnswer(invocation -> {
+            ((OnSuccessListener<Void>) invocation.getArgument(0)).onSuccess(null);
+            return commitTask;
+        });
+        when(commitTask.addOnFailureListener(any())).thenReturn(commitTask);
+
+        MovieProvider.setInstanceForTesting(mockFirestore);
+        movieProvider = MovieProvider.getInstance(mockFirestore);
+        catalogSummary = new CatalogSummary(mockFirestore);
+        movieProvider.setCatalogSummary(catalogSummary);
+    }
+
+    private static Movie movie(String id, String title, String genre, int year) {
+        Movie movie = new Movie(title, genre, year);
+        movie.setId(id);
+        return movie;
+    }
+
+    // The summary collection as read from the server, with each chunk given as id -> entry
+    @SafeVarargs
+    private static QuerySnapshot summary(boolean built, Map.Entry<String, Map<String, Object>>... chunks) {
+        List<DocumentSnapshot> documents = new ArrayList<>();
+        long updatedAt = 1_000;
+        for (Map.Entry<String, Map<String, Object>> chunk : chunks) {
+            QueryDocumentSnapshot document = mock(QueryDocumentSnapshot.class);
+            when(document.getId()).thenReturn(chunk.getKey());
+            when(document.get("entries")).thenReturn(chunk.getValue());
+            when(document.getDate("updatedAt")).thenReturn(new Date(updatedAt += 1_000));
+            documents.add(document);
+        }
+        if (built) {
+            QueryDocumentSnapshot marker = mock(QueryDocumentSnapshot.class);
+            when(marker.getId()).thenReturn("complete");
+            when(marker.getDate("updatedAt")).thenReturn(new Date(1_000));
+            documents.add(marker);
+        }
+        SnapshotMetadata metadata = mock(SnapshotMetadata.class);
+        QuerySnapshot snapshot = mock(QuerySnapshot.class);
+        when(snapshot.getDocuments()).thenReturn(documents);
+        when(snapshot.getMetadata()).thenReturn(metadata);
+        return snapshot;
+    }
+
+    // As if an earlier launch had loaded the summary after it was rebuilt
+    private void loadBuiltSummary() {
+        summaryRead = summary(true);
+        catalogSummary.load(mock(CatalogSummary.Listener.class));
+        assertTrue(catalogSummary.isBuilt());
+    }
+
+    private static Map.Entry<String, Map<String, Object>> chunk(String id, Object... idsAndEntries) {
+        Map<String, Object> entries = new HashMap<>();
+        for (int i = 0; i < idsAndEntries.length; i += 2)
+            entries.put((String) idsAndEntries[i], idsAndEntries[i + 1]);
+        return new java.util.AbstractMap.SimpleEntry<>(id, entries);
+    }
+
+    @Test
+    public void testListIsBuiltFromSummaryThenDeltas() {
+        Query deltaQuery = mock(Query.class);
+        when(mockMovieCollection.whereGreaterThan(eq("updatedAt"), any())).thenReturn(deltaQuery);
+        summaryRead = summary(true,
+                chunk("chunk-0", "a", Arrays.asList("Heat", "Crime", 1995L), "b", Arrays.asList("Up", "Animation", 2009L, "file:///up.jpg")),
+                chunk("chunk-1", "c", Arrays.asList("Jaws", "Thriller", 1975L)));
+
+        movieProvider.listenForUpdates(mock(MovieProvider.DataStatus.class));
+
+        assertEquals(3, movieProvider.getMovies().size());
+        assertEquals("file:///up.jpg", movieProvider.getMovie("b").getPosterUrl());
+        assertEquals(1975, movieProvider.getMovie("c").getYear());
+        // Caught up from the newest chunk stamp, with no listener on the chunks themselves
+        verify(mockMovieCollection).whereGreaterThan("updatedAt", new Date(3_000));
+        verify(deltaQuery).addSnapshotListener(any());
+        verify(mockMovieCollection, never()).addSnapshotListener(any());
+        verify(mockSummaryCollection, never()).addSnapshotListener(any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCatchUpKeepsMoviesWithPendingWrites() {
+        Query deltaQuery = mock(Query.class);
+        when(mockMovieCollection.whereGreaterThan(eq("updatedAt"), any())).thenReturn(deltaQuery);
+        ArgumentCaptor<EventListener<QuerySnapshot>> listener = ArgumentCaptor.forClass(EventListener.class);
+        when(deltaQuery.addSnapshotListener(listener.capture())).thenReturn(mock(ListenerRegistration.class));
+        summaryRead = summary(true, chunk("chunk-0", "a", Arrays.asList("Heat", "Crime", 1995L), "b", Arrays.asList("Up", "Animation", 2009L)));
+        movieProvider.listenForUpdates(mock(MovieProvider.DataStatus.class));
+
+        movieProvider.deleteMovie(movieProvider.getMovie("b"));
+        assertNull(movieProvider.getMovie("b"));
+
+        // A local edit to a takes it out of the updatedAt query until the server stamps it
+        SnapshotMetadata metadata = mock(SnapshotMetadata.class);
+        when(metadata.hasPendingWrites()).thenReturn(true);
+        QueryDocumentSnapshot document = mock(QueryDocumentSnapshot.class);
+        when(document.getId()).thenReturn("a");
+        when(document.getMetadata()).thenReturn(metadata);
+        DocumentChange change = mock(DocumentChange.class);
+        when(change.getType()).thenReturn(DocumentChange.Type.REMOVED);
+        when(change.getDocument()).thenReturn(document);
+        QuerySnapshot snapshot = mock(QuerySnapshot.class);
+        when(snapshot.getDocumentChanges()).thenReturn(Collections.singletonList(change));
+        when(snapshot.getMetadata()).thenReturn(metadata);
+        listener.getValue().onEvent(snapshot, null);
+
+        assertEquals(1, movieProvider.getMovies().size());
+        assertEquals("Heat", movieProvider.getMovie("a").getTitle());
+    }
+
+    @Test
+    public void testSummaryWithoutMarkerFallsBackToMovieDocuments() {
+        // Written to by movie writes, but never rebuilt, so older movies are missing from it
+        summaryRead = summary(false, chunk("chunk-0", "a", Arrays.asList("Heat", "Crime", 1995L)));
+
+        movieProvider.listenForUpdates(mock(MovieProvider.DataStatus.class));
+
+        verify(mockMovieCollection).addSnapshotListener(any());
+        verify(mockMovieCollection, never()).whereGreaterThan(anyString(), any());
+        assertTrue(movieProvider.getMovies().isEmpty());
+    }
+
+    @Test
+    public void testStaleCachedSummaryFallsBackToMovieDocuments() {
+        summaryRead = summary(true, chunk("chunk-0", "a", Arrays.asList("Heat", "Crime", 1995L)));
+        when(summaryRead.getMetadata().isFromCache()).thenReturn(true);
+
+        movieProvider.listenForUpdates(mock(MovieProvider.DataStatus.class));
+
+        verify(mockMovieCollection).addSnapshotListener(any());
+        assertTrue(movieProvider.getMovies().isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRebuildWritesMarkerWithChunks() {
+        QueryDocumentSnapshot document = mock(QueryDocumentSnapshot.class);
+        when(document.getId()).thenReturn("a");
+        when(document.getString("title")).thenReturn("Heat");
+        when(document.getLong("year")).thenReturn(1995L);
+        QuerySnapshot movies = mock(QuerySnapshot.class);
+        when(movies.getDocuments()).thenReturn(Collections.singletonList(document));
+        Task<QuerySnapshot> moviesTask = mock(Task.class);
+        when(mockMovieCollection.get()).thenReturn(moviesTask);
+        when(moviesTask.addOnSuccessListener(any())).thenAnswer(invocation -> {
+            ((OnSuccessListener<QuerySnapshot>) invocation.getArgument(0)).onSuccess(movies);
+            return moviesTask;
+        });
+        when(moviesTask.addOnFailureListener(any())).thenReturn(moviesTask);
+        DocumentReference marker = mock(DocumentReference.class);
+        when(marker.set(anyMap())).thenReturn(commitTask);
+        when(mockSummaryCollection.document("complete")).thenReturn(marker);
+        MovieProvider.DataStatus dataStatus = mock(MovieProvider.DataStatus.class);
+        assertFalse(catalogSummary.isBuilt());
+
+        movieProvider.rebuildCatalogSummary(dataStatus);
+
+        // Each chunk in a commit of its own, and the marker only after all of them
+        InOrder inOrder = inOrder(mockSummaryChunk, marker);
+        inOrder.verify(mockSummaryChunk, times(CatalogSummary.CHUNK_COUNT)).set(anyMap());
+        inOrder.verify(marker).set(anyMap());
+        verify(mockBatch, never()).commit();
+        verify(dataStatus).onDataUpdated();
+        assertTrue(catalogSummary.isBuilt());
+    }
+
+    @Test
+    public void testUnbuiltSummaryIsNotWritten() {
+        DocumentReference docRef = mock(DocumentReference.class);
+        when(docRef.getId()).thenReturn("heat");
+        when(mockMovieCollection.document("heat")).thenReturn(docRef);
+        Movie heat = movie("heat", "Heat", "Crime", 1995);
+
+        movieProvider.updateMovie(heat, "Heat", "Crime", 1996);
+
+        verify(docRef).set(any(Movie.class));
+        verify(mockFirestore, never()).batch();
+    }
+
+    @Test
+    public void testWritesUpdateSummaryInSameBatch() {
+        DocumentReference docRef = mock(DocumentReference.class);
+        when(docRef.getId()).thenReturn("heat");
+        when(mockMovieCollection.document("heat")).thenReturn(docRef);
+        Movie heat = movie("heat", "Heat", "Crime", 1995);
+        loadBuiltSummary();
+
+        movieProvider.updateMovie(heat, "Heat", "Crime", 1996);
+        movieProvider.deleteMovie(heat);
+
+        verify(mockBatch).set(docRef, heat);
+        verify(mockBatch).set(eq(docRef), anyMap(), any(SetOptions.class));
+        verify(mockBatch, times(2)).set(eq(mockSummaryChunk), anyMap(), any(SetOptions.class));
+        verify(mockBatch, times(2)).commit();
+        verify(docRef, never()).set(any());
+    }
+
+    @Test
+    public void testQueuedBatchLeavesRoomForSummaryWrites() {
+        when(mockMovieCollection.document(anyString())).thenReturn(mock(DocumentReference.class));
+        List<MovieMutation> mutations = new ArrayList<>();
+        for (int i = 0; i < MutationQueue.MAX_BATCH_SIZE; i++)
+            mutations.add(MovieMutation.set(movie("id" + i, "Movie " + i, "Drama", 2000)));
+        MutationQueue.CommitCallback callback = mock(MutationQueue.CommitCallback.class);
+        loadBuiltSummary();
+
+        movieProvider.commitBatch(mutations, callback);
+
+        // Two commits, neither over Firestore's limit once the summary chunks are added
+        verify(mockBatch, times(2)).commit();
+        verify(mockBatch, times(MutationQueue.MAX_BATCH_SIZE)).set(any(DocumentReference.class), any(Movie.class));
+        verify(mockBatch, atMost(2 * CatalogSummary.CHUNK_COUNT)).set(any(DocumentReference.class), anyMap(), any(SetOptions.class));
+        verify(callback).onCommitted();
+    }
+
+    @Test
+    public void testApplyWritesOncePerChunk() {
+        List<MovieMutation> mutations = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+            mutations.add(MovieMutation.set(movie("id" + i, "Movie " + i, "Drama", 2000)));
+        mutations.add(MovieMutation.delete(movie("id0", "Movie 0", "Drama", 2000)));
+
+        catalogSummary.apply(mockBatch, mutations);
+
+        ArgumentCaptor<Object> entries = ArgumentCaptor.forClass(Object.class);
+        verify(mockBatch, times(CatalogSummary.CHUNK_COUNT)).set(any(DocumentReference.class), entries.capture(), any(SetOptions.class));
+        int written = 0;
+        for (Object chunk : entries.getAllValues()) {
+            assertTrue(((Map<?, ?>) chunk).containsKey("updatedAt"));
+            Map<?, ?> chunkEntries = (Map<?, ?>) ((Map<?, ?>) chunk).get("entries");
+            written += chunkEntries.size();
+            if (chunkEntries.containsKey("id0"))
+                assertFalse(chunkEntries.get("id0") instanceof List);
+        }
+        assertEquals(200, written);
+    }
+}
@@ -0,0 +1,286 @@
+package com.example.androidcicd;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.database.DataSetObserver;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.SectionIndexer;
+
+import com.example.androidcicd.movie.CatalogSummary;
+import com.example.androidcicd.movie.MovieArrayAdapter;
+import com.example.androidcicd.movie.MovieChange;
+import com.example.androidcicd.movie.MovieProvider;
+import com.example.androidcicd.movie.MovieUpdateConflater;
+import com.example.androidcicd.movie.MutationQueue;
+import com.example.androidcicd.movie.SyncCheckpoint;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Renders MainActivity on the JVM with synthetic catalogs fed through a spied MovieProvider.
+// Rows bound, bytes allocated and median time per refresh are checked against
+// ui-performance-baseline.properties, and a refresh must cost the same whether 1k or 100k movies
+// are listed. Run the tests with -DuiBaseline.record=true to write fresh numbers to
+// build/ui-performance-baseline.properties instead.
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class MainActivityPerformanceTest {
+    private static final int SMALL_CATALOG = 1_000;
+    private static final int LARGE_CATALOG = 100_000;
+    private static final int WARMUP_REFRESHES = 5;
+    private static final int MEASURED_REFRESHES = 20;
+    private static final int CHANGES_PER_REFRESH = 10;
+    private static final long REFRESH_TIMEOUT_MILLIS = 30_000;
+    // About one refresh's worth, for the JIT and Robolectric's own bookkeeping to differ between runs
+    private static final long ALLOCATION_SLACK_BYTES = 4 * 1024;
+    private static final String BASELINE = "ui-performance-baseline.properties";
+
+    private static final Properties recorded = new Properties();
+
+    private MovieProvider movieProvider;
+    private MovieUpdateConflater conflater;
+    private ListView listView;
+    private CountingAdapter adapter;
+    private int listed;
+
+    private static class Measurement {
+        private int binds;
+        private long bytes;
+        private long millis;
+    }
+
+    @Before
+    public void setUp() {
+        FirebaseFirestore mockFirestore = mock(FirebaseFirestore.class);
+        when(mockFirestore.collection(anyString())).thenReturn(mock(CollectionReference.class));
+
+        // The real provider, minus Firestore: snapshots are fed to it directly. MainActivity picks
+        // it up through getInstance, so Firestore's own getInstance is never called.
+        MovieProvider.setInstanceForTesting(mockFirestore);
+        movieProvider = spy(MovieProvider.getInstance());
+        MovieProvider.setInstanceForTesting(movieProvider);
+        doReturn(mock(MutationQueue.class)).when(movieProvider).getMutationQueue();
+        doReturn(mock(CatalogSummary.class)).when(movieProvider).getCatalogSummary();
+        doReturn(mock(SyncCheckpoint.class)).when(movieProvider).getSyncCheckpoint();
+        doNothing().when(movieProvider).compactTombstones(any());
+        doAnswer(invocation -> {
+            conflater = invocation.getArgument(0);
+            return mock(ListenerRegistration.class);
+        }).when(movieProvider).listenForUpdates(any(MovieProvider.DataStatus.class));
+
+        MainActivity activity = Robolectric.buildActivity(MainActivity.class).setup().get();
+        listView = activity.findViewById(R.id.listviewMovies);
+        adapter = new CountingAdapter((MovieArrayAdapter) listView.getAdapter());
+        listView.setAdapter(adapter);
+        assertNotNull(conflater);
+    }
+
+    @Test
+    public void testRefreshBindsOnlyVisibleRows() {
+        Measurement small = measure(SMALL_CATALOG);
+        int visibleRows = listView.getChildCount();
+        Measurement large = measure(LARGE_CATALOG);
+
+        assertTrue("No rows were laid out", visibleRows > 0);
+        // A refresh rebinds what is on screen, at most once for measuring and once for layout
+        assertTrue(small.binds + " binds for " + visibleRows + " rows", small.binds <= 2 * visibleRows);
+        assertTrue(large.binds + " binds for " + visibleRows + " rows", large.binds <= 2 * visibleRows);
+    }
+
+    @Test
+    public void testRefreshAllocationDoesNotGrowWithCatalog() {
+        Measurement small = measure(SMALL_CATALOG);
+        Measurement large = measure(LARGE_CATALOG);
+
+        assertTrue(large.bytes + " bytes per refresh at " + LARGE_CATALOG + " movies against " + small.bytes
+                        + " at " + SMALL_CATALOG, large.bytes <= 2 * small.bytes + ALLOCATION_SLACK_BYTES);
+    }
+
+    @Test
+    public void testRefreshWithinBaseline() throws IOException {
+        for (int count : new int[]{SMALL_CATALOG, LARGE_CATALOG}) {
+            Measurement measurement = measure(count);
+            check(count, "refresh.binds", measurement.binds);
+            check(count, "refresh.bytes", measurement.bytes);
+            check(count, "refresh.millis", measurement.millis);
+        }
+    }
+
+    // Grows the catalog to count movies, then returns the average rows bound and bytes allocated,
+    // and the median time, per refresh for edits spread over it, as other devices would make them
+    private Measurement measure(int count) {
+        List<MovieChange> catalog = new ArrayList<>(count - listed);
+        for (int i = listed; i < count; i++)
+            catalog.add(movie(MovieChange.Type.ADDED, i, "Movie " + Integer.toHexString(i * 7919)));
+        refresh(catalog);
+        layOut();
+        listed = count;
+        assertEquals(count, adapter.getCount());
+
+        Measurement measurement = new Measurement();
+        long[] millis = new long[MEASURED_REFRESHES];
+        for (int round = 0; round < WARMUP_REFRESHES + MEASURED_REFRESHES; round++) {
+            List<MovieChange> edits = new ArrayList<>(CHANGES_PER_REFRESH);
+            for (int j = 0; j < CHANGES_PER_REFRESH; j++) {
+                int i = (int) ((round * CHANGES_PER_REFRESH + j) * 7_919L % count);
+                edits.add(movie(MovieChange.Type.MODIFIED, i, "Edited " + count + " " + round + " " + j));
+            }
+            adapter.binds = 0;
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            refresh(edits);
+            // Up to the adapter being notified; what laying out the list costs shows in the binds
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedBytes() - allocatedBefore;
+            layOut();
+            if (round < WARMUP_REFRESHES)
+                continue;
+            millis[round - WARMUP_REFRESHES] = TimeUnit.NANOSECONDS.toMillis(elapsed);
+            measurement.bytes += allocated;
+            measurement.binds += adapter.binds;
+        }
+        Arrays.sort(millis);
+        measurement.millis = millis[MEASURED_REFRESHES / 2];
+        measurement.bytes /= MEASURED_REFRESHES;
+        measurement.binds /= MEASURED_REFRESHES;
+        return measurement;
+    }
+
+    private static MovieChange movie(MovieChange.Type type, int i, String title) {
+        return new MovieChange(type, "id" + i, title, i % 3 == 0 ? "Drama" : "Comedy", 1950 + i % 70, null);
+    }
+
+    // Delivers one snapshot and waits until the list's adapter has been notified
+    private void refresh(List<MovieChange> changes) {
+        int refreshes = conflater.getRefreshCount();
+        movieProvider.applyChanges(changes, conflater);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REFRESH_TIMEOUT_MILLIS);
+        while (conflater.getRefreshCount() == refreshes) {
+            assertTrue("Refresh timed out", System.nanoTime() < deadline);
+            shadowOf(Looper.getMainLooper()).idle();
+            // Polled once a millisecond, so waiting out the frame interval adds little to the bytes
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private void layOut() {
+        shadowOf(Looper.getMainLooper()).runToEndOfTasks();
+    }
+
+    // Bytes allocated so far by every live thread, including the conflater's scheduler
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+            total += Math.max(bytes, 0);
+        return total;
+    }
+
+    private void check(int count, String metric, long measured) throws IOException {
+        String key = metric + "." + count;
+        if (Boolean.getBoolean("uiBaseline.record")) {
+            recorded.setProperty(key, Long.toString(measured));
+            File file = new File("build", BASELINE);
+            file.getParentFile().mkdirs();
+            try (OutputStream out = new FileOutputStream(file)) {
+                recorded.store(out, "Recorded by MainActivityPerformanceTest");
+            }
+            return;
+        }
+        Properties baseline = new Properties();
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(BASELINE)) {
+            assertNotNull("Missing " + BASELINE, in);
+            baseline.load(in);
+        }
+        String expected = baseline.getProperty(key);
+        assertNotNull("No baseline for " + key, expected);
+        double tolerance = Double.parseDouble(baseline.getProperty("tolerance." + metric.substring(metric.indexOf('.') + 1)));
+        long limit = (long) (Long.parseLong(expected) * (1 + tolerance));
+        assertTrue(key + " regressed: " + measured + " > " + limit, measured <= limit);
+    }
+
+    // Counts getView calls on the way to MainActivity's adapter
+    private static class CountingAdapter extends BaseAdapter implements SectionIndexer {
+        private final MovieArrayAdapter adapter;
+        private int binds;
+
+        CountingAdapter(MovieArrayAdapter adapter) {
+            this.adapter = adapter;
+            adapter.registerDataSetObserver(new DataSetObserver() {
+                @Override
+                public void onChanged() {
+                    notifyDataSetChanged();
+                }
+
+                @Override
+                public void onInvalidated() {
+                    notifyDataSetInvalidated();
+                }
+            });
+        }
+
+        @Override
+        public int getCount() {
+            return adapter.getCount();
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return adapter.getItem(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return adapter.getItemId(position);
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            binds++;
+            return adapter.getView(position, convertView, parent);
+        }
+
+        @Override
+        public Object[] getSections() {
+            return adapter.getSections();
+        }
+
+        @Override
+        public int getPositionForSection(int section) {
+            return adapter.getPositionForSection(section);
+        }
+
+        @Override
+        public int getSectionForPosition(int position) {
+            return adapter.getSectionForPosition(position);
+        }
+    }
+}
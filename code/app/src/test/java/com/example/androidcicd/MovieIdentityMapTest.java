@@ -0,0 +1,195 @@
+package com.example.androidcicd;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.example.androidcicd.movie.Movie;
+import com.example.androidcicd.movie.MovieChange;
+import com.example.androidcicd.movie.MovieProvider;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class MovieIdentityMapTest {
+    private static final int CATALOG_SIZE = 10_000;
+    private static final int ROUNDS = 50;
+    // Mocked document getters are slow and allocate a lot themselves, so decoding is measured on less
+    private static final int DECODED_SIZE = 2_000;
+    private static final int DECODE_ROUNDS = 10;
+    // Allowed bytes per unchanged document on the steady-state path, well under one Movie
+    private static final double MAX_BYTES_PER_CHANGE = 1.0;
+
+    private MovieProvider movieProvider;
+    private MovieProvider.DataStatus mockDataStatus;
+    private CollectionReference mockMovieCollection;
+
+    @Before
+    public void setUp() {
+        FirebaseFirestore mockFirestore = mock(FirebaseFirestore.class);
+        mockMovieCollection = mock(CollectionReference.class);
+        when(mockFirestore.collection(anyString())).thenReturn(mockMovieCollection);
+        MovieProvider.setInstanceForTesting(mockFirestore);
+        movieProvider = MovieProvider.getInstance(mockFirestore);
+        mockDataStatus = mock(MovieProvider.DataStatus.class);
+    }
+
+    private static MovieChange change(MovieChange.Type type, String id, String title, String genre, int year) {
+        return new MovieChange(type, id, title, genre, year, null);
+    }
+
+    @Test
+    public void testModifiedMovieIsUpdatedInPlace() {
+        movieProvider.applyChanges(Collections.singletonList(
+                change(MovieChange.Type.ADDED, "heat", "Heat", "Crime", 1995)), mockDataStatus);
+        Movie heat = movieProvider.getMovie("heat");
+
+        movieProvider.applyChanges(Collections.singletonList(
+                change(MovieChange.Type.MODIFIED, "heat", "Heat", "Thriller", 1995)), mockDataStatus);
+
+        assertSame(heat, movieProvider.getMovie("heat"));
+        assertSame(heat, movieProvider.getMovies().get(0));
+        assertEquals("Thriller", heat.getGenre());
+        assertEquals(1, movieProvider.getMovies().size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testOnlyChangedDocumentsAreReported() {
+        movieProvider.applyChanges(Arrays.asList(
+                change(MovieChange.Type.ADDED, "heat", "Heat", "Crime", 1995),
+                change(MovieChange.Type.ADDED, "jaws", "Jaws", "Thriller", 1975)), mockDataStatus);
+
+        // A resend of both with one edited, then a resend of both unchanged
+        MovieChange edited = change(MovieChange.Type.MODIFIED, "jaws", "Jaws", "Horror", 1975);
+        movieProvider.applyChanges(Arrays.asList(
+                change(MovieChange.Type.MODIFIED, "heat", "Heat", "Crime", 1995), edited), mockDataStatus);
+        movieProvider.applyChanges(Arrays.asList(
+                change(MovieChange.Type.MODIFIED, "heat", "Heat", "Crime", 1995), edited), mockDataStatus);
+
+        ArgumentCaptor<List<MovieChange>> changes = ArgumentCaptor.forClass(List.class);
+        verify(mockDataStatus, times(2)).onMoviesChanged(changes.capture());
+        verify(mockDataStatus, times(2)).onDataUpdated();
+        assertEquals(Collections.singletonList(edited), changes.getAllValues().get(1));
+        assertEquals("Horror", movieProvider.getMovie("jaws").getGenre());
+    }
+
+    @Test
+    public void testRemovingUnknownMovieChangesNothing() {
+        movieProvider.applyChanges(Collections.singletonList(
+                change(MovieChange.Type.REMOVED, "heat", "Heat", "Crime", 1995)), mockDataStatus);
+
+        verifyNoInteractions(mockDataStatus);
+    }
+
+    @Test
+    public void testUnchangedSnapshotsAllocateAlmostNothing() {
+        List<MovieChange> catalog = new ArrayList<>(CATALOG_SIZE);
+        List<MovieChange> resent = new ArrayList<>(CATALOG_SIZE);
+        for (int i = 0; i < CATALOG_SIZE; i++) {
+            String genre = i % 3 == 0 ? "Drama" : "Comedy";
+            catalog.add(change(MovieChange.Type.ADDED, "id" + i, "Movie " + i, genre, 1950 + i % 70));
+            resent.add(change(MovieChange.Type.MODIFIED, "id" + i, "Movie " + i, genre, 1950 + i % 70));
+        }
+        movieProvider.applyChanges(catalog, mockDataStatus);
+        // Warm up so the measured rounds run compiled code
+        for (int round = 0; round < ROUNDS; round++)
+            movieProvider.applyChanges(resent, mockDataStatus);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int round = 0; round < ROUNDS; round++)
+            movieProvider.applyChanges(resent, mockDataStatus);
+        long bytes = threads.getThreadAllocatedBytes(thread) - before;
+
+        double perChange = (double) bytes / ((long) ROUNDS * CATALOG_SIZE);
+        assertTrue("Allocated " + perChange + " bytes per unchanged document", perChange <= MAX_BYTES_PER_CHANGE);
+        assertEquals(CATALOG_SIZE, movieProvider.getMovies().size());
+        verify(mockDataStatus, times(1)).onDataUpdated();
+    }
+
+    // A snapshot of the given documents, all reported with type. Stub-only mocks keep Mockito from
+    // recording each call, so what the SDK's getters cost is the same every time they are called.
+    private static QuerySnapshot snapshot(DocumentChange.Type type, List<QueryDocumentSnapshot> documents) {
+        List<DocumentChange> changes = new ArrayList<>(documents.size());
+        for (QueryDocumentSnapshot document : documents) {
+            DocumentChange change = mock(DocumentChange.class, Mockito.withSettings().stubOnly());
+            when(change.getType()).thenReturn(type);
+            when(change.getDocument()).thenReturn(document);
+            changes.add(change);
+        }
+        QuerySnapshot snapshot = mock(QuerySnapshot.class, Mockito.withSettings().stubOnly());
+        when(snapshot.getDocumentChanges()).thenReturn(changes);
+        return snapshot;
+    }
+
+    // Reads every field decoding reads, to measure what the getters themselves allocate
+    private static int readFields(QuerySnapshot snapshot) {
+        int read = 0;
+        for (DocumentChange change : snapshot.getDocumentChanges()) {
+            DocumentSnapshot document = change.getDocument();
+            if (change.getType() != null && document.getId() != null && !Boolean.TRUE.equals(document.getBoolean("deleted"))
+                    && document.getLong("year") != null && document.getString("title") != null
+                    && document.getString("genre") != null && document.getString("posterUrl") == null)
+                read++;
+        }
+        return read;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDecodingUnchangedSnapshotsAllocatesAlmostNothing() {
+        ArgumentCaptor<EventListener<QuerySnapshot>> listener = ArgumentCaptor.forClass(EventListener.class);
+        when(mockMovieCollection.addSnapshotListener(listener.capture())).thenReturn(mock(ListenerRegistration.class));
+        movieProvider.listenForUpdates(mockDataStatus);
+        List<QueryDocumentSnapshot> documents = new ArrayList<>(DECODED_SIZE);
+        for (int i = 0; i < DECODED_SIZE; i++) {
+            QueryDocumentSnapshot document = mock(QueryDocumentSnapshot.class, Mockito.withSettings().stubOnly());
+            when(document.getId()).thenReturn("id" + i);
+            when(document.getString("title")).thenReturn("Movie " + i);
+            when(document.getString("genre")).thenReturn(i % 3 == 0 ? "Drama" : "Comedy");
+            when(document.getLong("year")).thenReturn((long) (1950 + i % 70));
+            documents.add(document);
+        }
+        EventListener<QuerySnapshot> snapshots = listener.getValue();
+        snapshots.onEvent(snapshot(DocumentChange.Type.ADDED, documents), null);
+        QuerySnapshot resent = snapshot(DocumentChange.Type.MODIFIED, documents);
+        for (int round = 0; round < DECODE_ROUNDS; round++) {
+            snapshots.onEvent(resent, null);
+            assertEquals(DECODED_SIZE, readFields(resent));
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int round = 0; round < DECODE_ROUNDS; round++)
+            readFields(resent);
+        long getterBytes = threads.getThreadAllocatedBytes(thread) - before;
+        before = threads.getThreadAllocatedBytes(thread);
+        for (int round = 0; round < DECODE_ROUNDS; round++)
+            snapshots.onEvent(resent, null);
+        long decodeBytes = threads.getThreadAllocatedBytes(thread) - before;
+
+        // Beyond the getters, decoding and applying an unchanged document should cost nothing
+        double perChange = (double) (decodeBytes - getterBytes) / ((long) DECODE_ROUNDS * DECODED_SIZE);
+        assertTrue("Allocated " + perChange + " bytes per unchanged document", perChange <= MAX_BYTES_PER_CHANGE);
+        assertEquals(DECODED_SIZE, movieProvider.getMovies().size());
+        verify(mockDataStatus, times(1)).onDataUpdated();
+    }
+}
@@ -3,22 +3,42 @@ package com.example.androidcicd;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import com.example.androidcicd.movie.MovieChange;
+import com.example.androidcicd.movie.MovieFilter;
 import com.example.androidcicd.movie.MovieProvider;
 import com.example.androidcicd.movie.Movie;
+import com.example.androidcicd.movie.SyncCheckpoint;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
 import com.google.firebase.firestore.*;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 public class MovieProviderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Mock
     private FirebaseFirestore mockFirestore;
 
@@ -156,9 +176,226 @@ public class MovieProviderTest {
         Movie movie = new Movie("Oppenheimer", "Thriller/Historical Drama", 2023);
         movie.setId("123");
 
-        // Call deleteMovie and verify delete method was called
+        // Call deleteMovie and verify a tombstone is written instead of removing the document
         movieProvider.deleteMovie(movie);
-        verify(mockDocRef).delete();
+        verify(mockDocRef).set(argThat(data -> data instanceof Map && Boolean.TRUE.equals(((Map<?, ?>) data).get("deleted"))),
+                any(SetOptions.class));
+        verify(mockDocRef, never()).delete();
+    }
+
+    @Test
+    public void testTombstonedTitleIsNotADuplicate() throws InterruptedException {
+        Movie movie = new Movie("Oppenheimer", "Thriller/Historical Drama", 2023);
+
+        // The only document with this title has been deleted
+        QueryDocumentSnapshot tombstone = mock(QueryDocumentSnapshot.class);
+        when(tombstone.getBoolean("deleted")).thenReturn(true);
+        when(mockQuerySnapshot.isEmpty()).thenReturn(false);
+        when(mockQuerySnapshot.getDocuments()).thenReturn(Collections.singletonList(tombstone));
+
+        CountDownLatch latch = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            latch.countDown();
+            return null;
+        }).when(mockDataStatus).onDataUpdated();
+
+        movieProvider.addMovie(movie, mockDataStatus);
+
+        assertTrue("Firestore operation timed out", latch.await(2, TimeUnit.SECONDS));
+        verify(mockDocRef).set(movie);
+    }
+
+    // A snapshot holding one movie, as the local cache or the server would deliver it
+    private static QuerySnapshot snapshotOf(String id, String title, long updatedAt, boolean fromCache) {
+        SnapshotMetadata metadata = mock(SnapshotMetadata.class);
+        when(metadata.isFromCache()).thenReturn(fromCache);
+        QueryDocumentSnapshot document = mock(QueryDocumentSnapshot.class);
+        when(document.getId()).thenReturn(id);
+        when(document.getString("title")).thenReturn(title);
+        when(document.getLong("year")).thenReturn(2023L);
+        when(document.getDate("updatedAt")).thenReturn(new Date(updatedAt));
+        when(document.getMetadata()).thenReturn(metadata);
+        DocumentChange change = mock(DocumentChange.class);
+        when(change.getType()).thenReturn(DocumentChange.Type.ADDED);
+        when(change.getDocument()).thenReturn(document);
+        QuerySnapshot snapshot = mock(QuerySnapshot.class);
+        when(snapshot.getDocumentChanges()).thenReturn(Collections.singletonList(change));
+        when(snapshot.getDocuments()).thenReturn(Collections.singletonList(document));
+        when(snapshot.getMetadata()).thenReturn(metadata);
+        return snapshot;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void cacheHolds(QuerySnapshot cachedSnapshot) {
+        Task<QuerySnapshot> cacheTask = mock(Task.class);
+        when(cacheTask.isSuccessful()).thenReturn(true);
+        when(cacheTask.getResult()).thenReturn(cachedSnapshot);
+        doAnswer(invocation -> {
+            OnCompleteListener<QuerySnapshot> listener = invocation.getArgument(0);
+            listener.onComplete(cacheTask);
+            return cacheTask;
+        }).when(cacheTask).addOnCompleteListener(any());
+        when(mockMovieCollection.get(Source.CACHE)).thenReturn(cacheTask);
+    }
+
+    @Test
+    public void testDeltaSyncOnlyListensForChangedDocuments() throws IOException {
+        SyncCheckpoint checkpoint = new SyncCheckpoint(folder.newFile("sync.checkpoint"));
+        long highWaterMark = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+        checkpoint.recordSync(highWaterMark, 1);
+        movieProvider.setSyncCheckpoint(checkpoint);
+
+        // The one movie of the last sync is still in the local cache
+        cacheHolds(snapshotOf("123", "Oppenheimer", highWaterMark, true));
+        Query deltaQuery = mock(Query.class);
+        when(mockMovieCollection.whereGreaterThan(eq("updatedAt"), any())).thenReturn(deltaQuery);
+
+        movieProvider.listenForUpdates(mockDataStatus);
+
+        verify(mockMovieCollection).whereGreaterThan("updatedAt", new Date(highWaterMark));
+        verify(deltaQuery).addSnapshotListener(any());
+        verify(mockMovieCollection, never()).addSnapshotListener(any());
+        assertEquals(1, movieProvider.getMovies().size());
+        assertEquals("Oppenheimer", movieProvider.getMovies().get(0).getTitle());
+    }
+
+    // A snapshot in which the movie left the query, for a local write when pendingWrites is set
+    private static QuerySnapshot removalOf(String id, boolean pendingWrites) {
+        SnapshotMetadata metadata = mock(SnapshotMetadata.class);
+        when(metadata.hasPendingWrites()).thenReturn(pendingWrites);
+        QueryDocumentSnapshot document = mock(QueryDocumentSnapshot.class);
+        when(document.getId()).thenReturn(id);
+        when(document.getMetadata()).thenReturn(metadata);
+        DocumentChange change = mock(DocumentChange.class);
+        when(change.getType()).thenReturn(DocumentChange.Type.REMOVED);
+        when(change.getDocument()).thenReturn(document);
+        QuerySnapshot snapshot = mock(QuerySnapshot.class);
+        when(snapshot.getDocumentChanges()).thenReturn(Collections.singletonList(change));
+        when(snapshot.getMetadata()).thenReturn(metadata);
+        return snapshot;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDeltaSyncKeepsMoviesWithPendingWrites() throws IOException {
+        SyncCheckpoint checkpoint = new SyncCheckpoint(folder.newFile("sync.checkpoint"));
+        long highWaterMark = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+        checkpoint.recordSync(highWaterMark, 1);
+        movieProvider.setSyncCheckpoint(checkpoint);
+        cacheHolds(snapshotOf("123", "Oppenheimer", highWaterMark, true));
+        Query deltaQuery = mock(Query.class);
+        when(mockMovieCollection.whereGreaterThan(eq("updatedAt"), any())).thenReturn(deltaQuery);
+        ArgumentCaptor<EventListener<QuerySnapshot>> listener = ArgumentCaptor.forClass(EventListener.class);
+        when(deltaQuery.addSnapshotListener(listener.capture())).thenReturn(mock(ListenerRegistration.class));
+        movieProvider.listenForUpdates(mockDataStatus);
+
+        // The edit shows at once, though its updatedAt waits for the server
+        movieProvider.updateMovie(movieProvider.getMovie("123"), "Oppenheimer (IMAX)", "Drama", 2023);
+        assertEquals("Oppenheimer (IMAX)", movieProvider.getMovie("123").getTitle());
+
+        // Pending, the edited movie falls out of the updatedAt query locally
+        listener.getValue().onEvent(removalOf("123", true), null);
+        assertEquals(1, movieProvider.getMovies().size());
+        assertEquals("Oppenheimer (IMAX)", movieProvider.getMovies().get(0).getTitle());
+
+        listener.getValue().onEvent(removalOf("123", false), null);
+        assertTrue(movieProvider.getMovies().isEmpty());
+    }
+
+    @Test
+    public void testCacheMissingMoviesReadsWholeCollection() throws IOException {
+        SyncCheckpoint checkpoint = new SyncCheckpoint(folder.newFile("sync.checkpoint"));
+        long highWaterMark = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+        checkpoint.recordSync(highWaterMark, 2);
+        movieProvider.setSyncCheckpoint(checkpoint);
+        // One of the two synced movies has been evicted from the cache
+        cacheHolds(snapshotOf("123", "Oppenheimer", highWaterMark, true));
+
+        movieProvider.listenForUpdates(mockDataStatus);
+
+        verify(mockMovieCollection).addSnapshotListener(any());
+        verify(mockMovieCollection, never()).whereGreaterThan(anyString(), any());
+        assertTrue(movieProvider.getMovies().isEmpty());
+    }
+
+    @Test
+    public void testCheckpointWithoutFullSyncReadsWholeCollection() throws IOException {
+        SyncCheckpoint checkpoint = new SyncCheckpoint(folder.newFile("sync.checkpoint"));
+        checkpoint.advanceHighWaterMark(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+        movieProvider.setSyncCheckpoint(checkpoint);
+
+        movieProvider.listenForUpdates(mockDataStatus);
+
+        verify(mockMovieCollection).addSnapshotListener(any());
+        verify(mockMovieCollection, never()).get(Source.CACHE);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testOnlyServerSnapshotsMoveCheckpoint() throws IOException {
+        SyncCheckpoint checkpoint = new SyncCheckpoint(folder.newFile("sync.checkpoint"));
+        movieProvider.setSyncCheckpoint(checkpoint);
+        ArgumentCaptor<EventListener<QuerySnapshot>> listener = ArgumentCaptor.forClass(EventListener.class);
+        when(mockMovieCollection.addSnapshotListener(listener.capture())).thenReturn(mock(ListenerRegistration.class));
+        movieProvider.listenForUpdates(mockDataStatus);
+
+        listener.getValue().onEvent(snapshotOf("123", "Oppenheimer", 5_000, true), null);
+
+        assertEquals(1, movieProvider.getMovies().size());
+        assertEquals(0, checkpoint.getHighWaterMark());
+        assertEquals(-1, checkpoint.getSyncedCount());
+
+        listener.getValue().onEvent(snapshotOf("456", "Barbie", 6_000, false), null);
+
+        assertEquals(6_000, checkpoint.getHighWaterMark());
+        assertEquals(2, checkpoint.getSyncedCount());
+    }
+
+    @Test
+    public void testExpiredCheckpointReadsWholeCollection() throws IOException {
+        SyncCheckpoint checkpoint = new SyncCheckpoint(folder.newFile("sync.checkpoint"));
+        checkpoint.recordSync(System.currentTimeMillis() - MovieProvider.TOMBSTONE_RETENTION_MILLIS - 1, 1);
+        movieProvider.setSyncCheckpoint(checkpoint);
+
+        movieProvider.listenForUpdates(mockDataStatus);
+
+        verify(mockMovieCollection).addSnapshotListener(any());
+        verify(mockMovieCollection, never()).get(Source.CACHE);
+    }
+
+    @Test
+    public void testSyncCheckpointOnlyMovesForward() throws IOException {
+        File file = folder.newFile("sync.checkpoint");
+        SyncCheckpoint checkpoint = new SyncCheckpoint(file);
+        checkpoint.advanceHighWaterMark(2_000);
+        checkpoint.advanceHighWaterMark(1_000);
+        checkpoint.setLastCompaction(500);
+
+        SyncCheckpoint reloaded = new SyncCheckpoint(file);
+        assertEquals(2_000, reloaded.getHighWaterMark());
+        assertEquals(500, reloaded.getLastCompaction());
+        assertEquals(-1, reloaded.getSyncedCount());
+
+        reloaded.recordSync(1_500, 42);
+        reloaded = new SyncCheckpoint(file);
+        assertEquals(2_000, reloaded.getHighWaterMark());
+        assertEquals(42, reloaded.getSyncedCount());
+    }
+
+    @Test
+    public void testCheckpointWithoutSyncedCountStartsOver() throws IOException {
+        // Written before the synced count was kept
+        File file = folder.newFile("sync.checkpoint");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeLong(2_000);
+            out.writeLong(500);
+        }
+
+        SyncCheckpoint checkpoint = new SyncCheckpoint(file);
+
+        assertEquals(0, checkpoint.getHighWaterMark());
+        assertEquals(500, checkpoint.getLastCompaction());
+        assertEquals(-1, checkpoint.getSyncedCount());
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -180,4 +417,134 @@ public class MovieProviderTest {
 
         movieProvider.updateMovie(movie, "", "Another Genre", 2026);
     }
+
+    @Test
+    public void testFilterIsPushedDownAsQuery() {
+        when(mockQuery.whereGreaterThanOrEqualTo(anyString(), any())).thenReturn(mockQuery);
+        when(mockQuery.whereLessThanOrEqualTo(anyString(), any())).thenReturn(mockQuery);
+        when(mockQuery.orderBy(anyString())).thenReturn(mockQuery);
+
+        movieProvider.listenForUpdates(new MovieFilter("Drama", 1990, 1999), mockDataStatus);
+
+        verify(mockMovieCollection).whereEqualTo("genre", "Drama");
+        verify(mockQuery).whereGreaterThanOrEqualTo("year", 1990);
+        verify(mockQuery).whereLessThanOrEqualTo("year", 1999);
+        verify(mockQuery).orderBy("year");
+        verify(mockQuery).addSnapshotListener(any());
+        verify(mockMovieCollection, never()).addSnapshotListener(any());
+    }
+
+    @Test
+    public void testNewFilterReplacesPreviousListener() {
+        ListenerRegistration mockRegistration = mock(ListenerRegistration.class);
+        when(mockMovieCollection.addSnapshotListener(any())).thenReturn(mockRegistration);
+
+        movieProvider.listenForUpdates(mockDataStatus);
+        movieProvider.listenForUpdates(MovieFilter.byGenre("Drama"), mockDataStatus);
+
+        verify(mockRegistration).remove();
+        verify(mockQuery).addSnapshotListener(any());
+    }
+
+    private static MovieChange change(MovieChange.Type type, String id, int year) {
+        return new MovieChange(type, id, "Movie " + id, "Drama", year, null);
+    }
+
+    private List<String> listedIds() {
+        List<String> ids = new ArrayList<>();
+        for (Movie movie : movieProvider.getMovies())
+            ids.add(movie.getId());
+        return ids;
+    }
+
+    @Test
+    public void testListFollowsDocumentIdOrder() {
+        movieProvider.applyChanges(Arrays.asList(change(MovieChange.Type.ADDED, "c", 2000),
+                change(MovieChange.Type.ADDED, "a", 2010), change(MovieChange.Type.ADDED, "b", 1990)), mockDataStatus);
+        movieProvider.applyChanges(Collections.singletonList(change(MovieChange.Type.MODIFIED, "a", 1980)), mockDataStatus);
+
+        assertEquals(Arrays.asList("a", "b", "c"), listedIds());
+
+        movieProvider.applyChanges(Collections.singletonList(change(MovieChange.Type.REMOVED, "b", 1990)), mockDataStatus);
+
+        assertEquals(Arrays.asList("a", "c"), listedIds());
+    }
+
+    @Test
+    public void testModifiedYearMovesMovieUnderYearOrder() {
+        when(mockMovieCollection.whereGreaterThanOrEqualTo(anyString(), any())).thenReturn(mockQuery);
+        when(mockQuery.whereLessThanOrEqualTo(anyString(), any())).thenReturn(mockQuery);
+        when(mockQuery.orderBy(anyString())).thenReturn(mockQuery);
+        movieProvider.listenForUpdates(MovieFilter.byYears(1950, 2020), mockDataStatus);
+
+        movieProvider.applyChanges(Arrays.asList(change(MovieChange.Type.ADDED, "a", 2001),
+                change(MovieChange.Type.ADDED, "b", 1999), change(MovieChange.Type.ADDED, "c", 1999)), mockDataStatus);
+        assertEquals(Arrays.asList("b", "c", "a"), listedIds());
+
+        movieProvider.applyChanges(Collections.singletonList(change(MovieChange.Type.MODIFIED, "a", 1960)), mockDataStatus);
+        assertEquals(Arrays.asList("a", "b", "c"), listedIds());
+
+        movieProvider.applyChanges(Collections.singletonList(change(MovieChange.Type.MODIFIED, "b", 2010)), mockDataStatus);
+        assertEquals(Arrays.asList("a", "c", "b"), listedIds());
+    }
+
+    @Test
+    public void testTitleIndexCatchesUpWithChangesMadeWhileBuilding() throws InterruptedException {
+        movieProvider.applyChanges(Collections.singletonList(
+                new MovieChange(MovieChange.Type.ADDED, "a", "The Matrix", "Action", 1999, null)), mockDataStatus);
+        assertTrue(movieProvider.findSimilarTitles("The Matrix").isEmpty());
+
+        // Applied after the build took its copy of the titles
+        movieProvider.applyChanges(Collections.singletonList(
+                new MovieChange(MovieChange.Type.ADDED, "b", "Inception", "Thriller", 2010, null)), mockDataStatus);
+        long deadline = System.currentTimeMillis() + 2_000;
+        while (!movieProvider.prepareTitleIndex()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+
+        assertEquals("a", movieProvider.findSimilarTitles("matrix, the").get(0).getId());
+        assertEquals("b", movieProvider.findSimilarTitles("inception").get(0).getId());
+        movieProvider.applyChanges(Collections.singletonList(
+                new MovieChange(MovieChange.Type.REMOVED, "a", "The Matrix", "Action", 1999, null)), mockDataStatus);
+        assertTrue(movieProvider.findSimilarTitles("The Matrix").isEmpty());
+    }
+
+    @Test
+    public void testLargeSnapshotIsSortedLikeSmallOnes() {
+        List<MovieChange> changes = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++)
+            changes.add(change(MovieChange.Type.ADDED, "id" + i, 1950 + i % 70));
+        Collections.shuffle(changes, new Random(1));
+        movieProvider.applyChanges(changes, mockDataStatus);
+
+        List<String> expected = new ArrayList<>();
+        for (MovieChange change : changes)
+            expected.add(change.getId());
+        Collections.sort(expected);
+        assertEquals(expected, listedIds());
+
+        // A small follow-up snapshot goes through the binary search path
+        movieProvider.applyChanges(Arrays.asList(change(MovieChange.Type.REMOVED, "id42", 1992),
+                change(MovieChange.Type.ADDED, "id42a", 2000)), mockDataStatus);
+        expected.remove("id42");
+        expected.add("id42a");
+        Collections.sort(expected);
+        assertEquals(expected, listedIds());
+    }
+
+    @Test
+    public void testFilterMatches() {
+        Movie movie = new Movie("Oppenheimer", "Thriller/Historical Drama", 2023);
+
+        assertTrue(MovieFilter.all().matches(movie));
+        assertTrue(MovieFilter.byYears(2020, 2023).matches(movie));
+        assertFalse(MovieFilter.byYears(1990, 1999).matches(movie));
+        assertFalse(MovieFilter.byGenre("Comedy").matches(movie));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFilterRejectsInvertedYearRange() {
+        MovieFilter.byYears(2000, 1990);
+    }
 }
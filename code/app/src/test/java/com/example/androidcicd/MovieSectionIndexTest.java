@@ -0,0 +1,152 @@
+package com.example.androidcicd;
+
+import static org.junit.Assert.*;
+
+import com.example.androidcicd.movie.Movie;
+import com.example.androidcicd.movie.MovieChange;
+import com.example.androidcicd.movie.MovieSectionIndex;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+public class MovieSectionIndexTest {
+    // Stands in for MovieProvider's id -> movie map
+    private final HashMap<String, Movie> current = new HashMap<>();
+    private MovieSectionIndex index;
+
+    @Before
+    public void setUp() {
+        index = new MovieSectionIndex(MovieSectionIndex.Mode.TITLE);
+    }
+
+    private MovieChange change(MovieChange.Type type, String id, String title, int year) {
+        if (type == MovieChange.Type.REMOVED) {
+            current.remove(id);
+        } else {
+            Movie movie = new Movie(title, "Drama", year);
+            movie.setId(id);
+            current.put(id, movie);
+        }
+        return new MovieChange(type, id, title, "Drama", year, null);
+    }
+
+    private void apply(MovieChange... changes) {
+        index.apply(Arrays.asList(changes), current::get);
+    }
+
+    private List<String> titles() {
+        List<String> titles = new ArrayList<>();
+        for (Movie movie : index.getMovies())
+            titles.add(movie.getTitle());
+        return titles;
+    }
+
+    @Test
+    public void testMoviesAreKeptSortedBySection() {
+        apply(change(MovieChange.Type.ADDED, "1", "Barbie", 2023),
+                change(MovieChange.Type.ADDED, "2", "arrival", 2016),
+                change(MovieChange.Type.ADDED, "3", "12 Angry Men", 1957),
+                change(MovieChange.Type.ADDED, "4", "Amélie", 2001),
+                change(MovieChange.Type.ADDED, "5", "Babe", 1995));
+
+        assertEquals(Arrays.asList("12 Angry Men", "Amélie", "arrival", "Babe", "Barbie"), titles());
+        assertArrayEquals(new String[]{"#", "A", "B"}, index.getSections());
+        assertEquals(0, index.getPositionForSection(0));
+        assertEquals(1, index.getPositionForSection(1));
+        assertEquals(3, index.getPositionForSection(2));
+        assertEquals(1, index.getSectionForPosition(2));
+        assertEquals(2, index.getSectionForPosition(4));
+    }
+
+    @Test
+    public void testRenameMovesMovieAndUpdatesSections() {
+        apply(change(MovieChange.Type.ADDED, "1", "Barbie", 2023),
+                change(MovieChange.Type.ADDED, "2", "Arrival", 2016));
+
+        apply(change(MovieChange.Type.MODIFIED, "1", "Zodiac", 2007));
+
+        assertEquals(Arrays.asList("Arrival", "Zodiac"), titles());
+        assertArrayEquals(new String[]{"A", "Z"}, index.getSections());
+
+        apply(change(MovieChange.Type.REMOVED, "2", "Arrival", 2016));
+
+        assertEquals(Collections.singletonList("Zodiac"), titles());
+        assertArrayEquals(new String[]{"Z"}, index.getSections());
+    }
+
+    @Test
+    public void testChangeForMovieRemovedLaterIsSkipped() {
+        MovieChange added = change(MovieChange.Type.ADDED, "1", "Barbie", 2023);
+        change(MovieChange.Type.REMOVED, "1", "Barbie", 2023);
+
+        apply(added);
+
+        assertTrue(index.getMovies().isEmpty());
+        assertEquals(0, index.getSections().length);
+        assertEquals(0, index.getPositionForSection(3));
+    }
+
+    @Test
+    public void testYearModeGroupsByDecade() {
+        index = new MovieSectionIndex(MovieSectionIndex.Mode.YEAR);
+        apply(change(MovieChange.Type.ADDED, "1", "Barbie", 2023),
+                change(MovieChange.Type.ADDED, "2", "Heat", 1995),
+                change(MovieChange.Type.ADDED, "3", "Fargo", 1996),
+                change(MovieChange.Type.ADDED, "4", "Arrival", 2016));
+
+        assertEquals(Arrays.asList("Heat", "Fargo", "Arrival", "Barbie"), titles());
+        assertArrayEquals(new String[]{"1990s", "2010s", "2020s"}, index.getSections());
+        assertEquals(2, index.getPositionForSection(1));
+    }
+
+    @Test
+    public void testSectionJumpsOnLargeList() {
+        List<MovieChange> changes = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++)
+            changes.add(change(MovieChange.Type.ADDED, "id" + i, (char) ('A' + i % 26) + " Movie " + i, 1950 + i % 70));
+        index.apply(changes, current::get);
+
+        String[] sections = index.getSections();
+        assertEquals(26, sections.length);
+        for (int section = 0; section < sections.length; section++) {
+            int position = index.getPositionForSection(section);
+            assertTrue(index.getMovies().get(position).getTitle().startsWith(sections[section]));
+            assertEquals(section, index.getSectionForPosition(position));
+            if (position > 0)
+                assertEquals(section - 1, index.getSectionForPosition(position - 1));
+        }
+
+        // A delta only touches the movies it names
+        apply(change(MovieChange.Type.MODIFIED, "id0", "Zzz", 1950));
+        assertEquals("Zzz", index.getMovies().get(index.getMovies().size() - 1).getTitle());
+        assertEquals(100_000, index.getMovies().size());
+    }
+
+    @Test
+    public void testLargeChangeSetMatchesOneByOne() {
+        List<MovieChange> changes = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++)
+            changes.add(change(MovieChange.Type.ADDED, "id" + i, (char) ('A' + i * 7 % 26) + " Movie " + i, 1950 + i % 70));
+        for (int i = 0; i < 2_000; i += 10)
+            changes.add(change(MovieChange.Type.REMOVED, "id" + i, null, 0));
+        // The movie is placed by its latest title, not the one it was added with
+        changes.add(change(MovieChange.Type.MODIFIED, "id1", "Renamed", 1990));
+
+        index.apply(changes, current::get);
+        MovieSectionIndex oneByOne = new MovieSectionIndex(MovieSectionIndex.Mode.TITLE);
+        for (MovieChange change : changes)
+            oneByOne.apply(Collections.singletonList(change), current::get);
+
+        assertEquals(1_800, index.getMovies().size());
+        assertEquals(oneByOne.getMovies(), index.getMovies());
+        assertArrayEquals(oneByOne.getSections(), index.getSections());
+        for (int section = 0; section < index.getSections().length; section++)
+            assertEquals(oneByOne.getPositionForSection(section), index.getPositionForSection(section));
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.androidcicd;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.example.androidcicd.movie.Movie;
+import com.example.androidcicd.movie.MovieChange;
+import com.example.androidcicd.movie.MovieFilter;
+import com.example.androidcicd.movie.MovieProvider;
+import com.example.androidcicd.movie.MovieShardMigration;
+import com.example.androidcicd.movie.MovieShards;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MovieShardsTest {
+    private FirebaseFirestore mockFirestore;
+    private CollectionReference mockMovieCollection;
+    private WriteBatch mockBatch;
+    // Shard key -> that shard's movie collection
+    private final Map<String, CollectionReference> shardCollections = new HashMap<>();
+    private final Map<String, DocumentReference> shardDocuments = new HashMap<>();
+    private MovieProvider.DataStatus mockDataStatus;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        mockFirestore = mock(FirebaseFirestore.class);
+        mockMovieCollection = mock(CollectionReference.class);
+        when(mockFirestore.collection("movies")).thenReturn(mockMovieCollection);
+        when(mockMovieCollection.getFirestore()).thenReturn(mockFirestore);
+        mockBatch = mock(WriteBatch.class);
+        when(mockFirestore.batch()).thenReturn(mockBatch);
+        Task<Void> commitTask = mock(Task.class);
+        when(mockBatch.commit()).thenReturn(commitTask);
+        when(commitTask.addOnSuccessListener(any())).thenAnswer(invocation -> {
+            ((OnSuccessListener<Void>) invocation.getArgument(0)).onSuccess(null);
+            return commitTask;
+        });
+        when(commitTask.addOnFailureListener(any())).thenReturn(commitTask);
+
+        CollectionReference shardRoot = mock(CollectionReference.class);
+        when(mockFirestore.collection(MovieShards.SHARD_COLLECTION)).thenReturn(shardRoot);
+        for (String key : Arrays.asList("1980s", "1990s", "2000s", "crime", "thriller", "drama", "comedy")) {
+            CollectionReference collection = mock(CollectionReference.class, RETURNS_DEEP_STUBS);
+            for (String id : Arrays.asList("heat", "id0", "id1")) {
+                DocumentReference document = mock(DocumentReference.class);
+                when(document.getId()).thenReturn(id);
+                when(collection.document(id)).thenReturn(document);
+                shardDocuments.put(key + "/" + id, document);
+            }
+            DocumentReference shard = mock(DocumentReference.class);
+            when(shard.collection(MovieShards.MOVIE_COLLECTION)).thenReturn(collection);
+            when(shardRoot.document(key)).thenReturn(shard);
+            shardCollections.put(key, collection);
+        }
+
+        MovieProvider.setInstanceForTesting(mockFirestore);
+        mockDataStatus = mock(MovieProvider.DataStatus.class);
+    }
+
+    private MovieProvider shardedProvider(MovieShards.Scheme scheme) {
+        MovieProvider movieProvider = MovieProvider.getInstance(mockFirestore);
+        movieProvider.setShards(new MovieShards(mockFirestore, scheme));
+        return movieProvider;
+    }
+
+    @Test
+    public void testShardKeys() {
+        MovieShards byGenre = new MovieShards(mockFirestore, MovieShards.Scheme.GENRE);
+        MovieShards byDecade = new MovieShards(mockFirestore, MovieShards.Scheme.DECADE);
+
+        assertEquals("thriller-historical-drama", byGenre.shardKey(" Thriller/Historical Drama", 2023));
+        assertEquals("unknown", byGenre.shardKey("", 2023));
+        assertEquals("2020s", byDecade.shardKey("Drama", 2023));
+        assertEquals("unknown", byDecade.shardKey("Drama", 0));
+    }
+
+    @Test
+    public void testFiltersSelectShards() {
+        MovieShards byGenre = new MovieShards(mockFirestore, MovieShards.Scheme.GENRE);
+        MovieShards byDecade = new MovieShards(mockFirestore, MovieShards.Scheme.DECADE);
+
+        assertEquals(Collections.singletonList("sci-fi"), byGenre.shardsFor(MovieFilter.byGenre("Sci-Fi")));
+        assertNull(byGenre.shardsFor(MovieFilter.byYears(1990, 1999)));
+        assertEquals(Arrays.asList("1980s", "1990s", "2000s"), byDecade.shardsFor(MovieFilter.byYears(1985, 2004)));
+        assertNull(byDecade.shardsFor(MovieFilter.byGenre("Drama")));
+        // Too many decades to be worth a listener each
+        assertNull(byDecade.shardsFor(MovieFilter.byYears(1800, 2020)));
+    }
+
+    @Test
+    public void testSelectiveListeningOnlyAttachesToNeededShards() {
+        MovieProvider movieProvider = shardedProvider(MovieShards.Scheme.DECADE);
+
+        ListenerRegistration registration = movieProvider.listenForUpdates(MovieFilter.byYears(1990, 2005), mockDataStatus);
+
+        List<ListenerRegistration> shardRegistrations = new ArrayList<>();
+        for (String key : Arrays.asList("1990s", "2000s")) {
+            Query query = shardCollections.get(key).whereGreaterThanOrEqualTo("year", 1990)
+                    .whereLessThanOrEqualTo("year", 2005).orderBy("year");
+            verify(query).addSnapshotListener(any());
+            shardRegistrations.add(query.addSnapshotListener(any()));
+        }
+        verify(shardCollections.get("1980s"), never()).whereGreaterThanOrEqualTo(anyString(), any());
+        verify(mockMovieCollection, never()).addSnapshotListener(any());
+
+        registration.remove();
+        for (ListenerRegistration shardRegistration : shardRegistrations)
+            verify(shardRegistration).remove();
+    }
+
+    @Test
+    public void testUnfilteredViewListensToAllShards() {
+        Query group = mock(Query.class);
+        when(mockFirestore.collectionGroup(MovieShards.MOVIE_COLLECTION)).thenReturn(group);
+        MovieProvider movieProvider = shardedProvider(MovieShards.Scheme.GENRE);
+
+        movieProvider.listenForUpdates(mockDataStatus);
+
+        verify(group).addSnapshotListener(any());
+        verify(mockMovieCollection, never()).addSnapshotListener(any());
+    }
+
+    @Test
+    public void testWritesGoToTheMoviesShard() {
+        MovieProvider movieProvider = shardedProvider(MovieShards.Scheme.GENRE);
+        Movie movie = new Movie("Heat", "Crime", 1995);
+        movie.setId("heat");
+
+        movieProvider.updateMovie(movie, "Heat", "Crime", 1996);
+        movieProvider.deleteMovie(movie);
+
+        DocumentReference document = shardDocuments.get("crime/heat");
+        verify(document).set(movie);
+        verify(document).set(anyMap(), any(SetOptions.class));
+        verify(mockMovieCollection, never()).document("heat");
+    }
+
+    @Test
+    public void testChangingGenreMovesMovieBetweenShards() {
+        MovieProvider movieProvider = shardedProvider(MovieShards.Scheme.GENRE);
+        Movie movie = new Movie("Heat", "Crime", 1995);
+        movie.setId("heat");
+
+        movieProvider.updateMovie(movie, "Heat", "Thriller", 1995);
+
+        verify(mockBatch).set(eq(shardDocuments.get("crime/heat")), anyMap(), any(SetOptions.class));
+        verify(mockBatch).set(shardDocuments.get("thriller/heat"), movie);
+        verify(mockBatch).commit();
+    }
+
+    @Test
+    public void testTombstoneLeftByMoveDoesNotRemoveMovedMovie() {
+        MovieProvider movieProvider = shardedProvider(MovieShards.Scheme.GENRE);
+        movieProvider.applyChanges(Collections.singletonList(
+                new MovieChange(MovieChange.Type.ADDED, "heat", "Heat", "Thriller", 1995, null)), mockDataStatus);
+
+        // The old shard's tombstone arrives after the movie reached its new shard
+        movieProvider.applyChanges(Collections.singletonList(
+                new MovieChange(MovieChange.Type.REMOVED, "heat", "Heat", "Crime", 1995, null)), mockDataStatus);
+
+        assertEquals("Thriller", movieProvider.getMovie("heat").getGenre());
+        verify(mockDataStatus, times(1)).onMoviesChanged(anyList());
+        verify(mockDataStatus, times(1)).onDataUpdated();
+
+        movieProvider.applyChanges(Collections.singletonList(
+                new MovieChange(MovieChange.Type.REMOVED, "heat", "Heat", "Thriller", 1995, null)), mockDataStatus);
+        assertNull(movieProvider.getMovie("heat"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMigrationMovesFlatCollectionInBatches() {
+        // Two full batches and a partial one, then an empty read
+        List<QuerySnapshot> pages = new ArrayList<>();
+        int[] sizes = {MovieShardMigration.BATCH_SIZE, MovieShardMigration.BATCH_SIZE, 7, 0};
+        int next = 0;
+        for (int size : sizes) {
+            List<DocumentSnapshot> documents = new ArrayList<>();
+            for (int i = 0; i < size; i++, next++) {
+                DocumentSnapshot document = mock(DocumentSnapshot.class);
+                when(document.getId()).thenReturn("id" + next);
+                when(document.getString("genre")).thenReturn(next % 2 == 0 ? "Drama" : "Comedy");
+                when(document.getLong("year")).thenReturn(2000L);
+                when(document.getData()).thenReturn(new HashMap<>());
+                when(document.getReference()).thenReturn(mock(DocumentReference.class));
+                documents.add(document);
+            }
+            QuerySnapshot page = mock(QuerySnapshot.class);
+            when(page.getDocuments()).thenReturn(documents);
+            when(page.size()).thenReturn(size);
+            when(page.isEmpty()).thenReturn(size == 0);
+            pages.add(page);
+        }
+        Query firstPage = mock(Query.class);
+        Task<QuerySnapshot> read = mock(Task.class);
+        when(mockMovieCollection.limit(MovieShardMigration.BATCH_SIZE)).thenReturn(firstPage);
+        when(firstPage.get()).thenReturn(read);
+        int[] reads = {0};
+        when(read.addOnSuccessListener(any())).thenAnswer(invocation -> {
+            ((OnSuccessListener<QuerySnapshot>) invocation.getArgument(0)).onSuccess(pages.get(reads[0]++));
+            return read;
+        });
+        when(read.addOnFailureListener(any())).thenReturn(read);
+        MovieShardMigration.Progress progress = mock(MovieShardMigration.Progress.class);
+
+        new MovieShardMigration(mockFirestore, new MovieShards(mockFirestore, MovieShards.Scheme.GENRE)).migrate(progress);
+
+        int total = 2 * MovieShardMigration.BATCH_SIZE + 7;
+        verify(progress).onBatchMigrated(MovieShardMigration.BATCH_SIZE);
+        verify(progress).onComplete(total);
+        verify(mockBatch, times(3)).commit();
+        verify(mockBatch, times(total)).delete(any());
+        verify(mockBatch).set(eq(shardDocuments.get("drama/id0")), anyMap());
+        verify(mockBatch).set(eq(shardDocuments.get("comedy/id1")), anyMap());
+        verify(progress, never()).onError(anyString());
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.androidcicd;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.example.androidcicd.movie.Movie;
+import com.example.androidcicd.movie.MovieChange;
+import com.example.androidcicd.movie.MovieProvider;
+import com.example.androidcicd.movie.MovieUpdateConflater;
+import com.example.androidcicd.movie.MovieViews;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class MovieUpdateConflaterTest {
+    private MovieProvider movieProvider;
+    // Stands in for the Android main thread
+    private ExecutorService main;
+    private ScheduledExecutorService scheduler;
+    private ExecutorService pool;
+    private final List<MovieViews> refreshes = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        FirebaseFirestore mockFirestore = mock(FirebaseFirestore.class);
+        when(mockFirestore.collection("movies")).thenReturn(mock(CollectionReference.class));
+        MovieProvider.setInstanceForTesting(mockFirestore);
+        movieProvider = MovieProvider.getInstance(mockFirestore);
+        main = Executors.newSingleThreadExecutor();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        pool = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown() {
+        main.shutdownNow();
+        scheduler.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    private MovieUpdateConflater conflater(CountDownLatch refreshed) {
+        return new MovieUpdateConflater(movieProvider, new MovieUpdateConflater.Listener() {
+            @Override
+            public void onViewsUpdated(MovieViews views) {
+                refreshes.add(views);
+                refreshed.countDown();
+            }
+
+            @Override
+            public void onError(String error) {
+                fail(error);
+            }
+        }, main, scheduler, pool, 50, true);
+    }
+
+    private static MovieChange added(int i, String title) {
+        return new MovieChange(MovieChange.Type.ADDED, "id" + i, title, i % 2 == 0 ? "Drama" : "Comedy", 1990 + i, null);
+    }
+
+    @Test
+    public void testBurstIsMergedIntoOneRefresh() throws Exception {
+        CountDownLatch refreshed = new CountDownLatch(1);
+        MovieUpdateConflater conflater = conflater(refreshed);
+
+        main.submit(() -> {
+            for (int i = 0; i < 200; i++)
+                movieProvider.applyChanges(Collections.singletonList(added(i, "Movie " + i)), conflater);
+        }).get();
+
+        assertTrue(refreshed.await(2, TimeUnit.SECONDS));
+        Thread.sleep(150);
+        assertEquals(1, refreshes.size());
+        assertEquals(200, refreshes.get(0).getSorted().size());
+        assertEquals(200, refreshes.get(0).getStatistics().getCount());
+    }
+
+    @Test
+    public void testLaterBurstGetsItsOwnRefresh() throws Exception {
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch second = new CountDownLatch(2);
+        MovieUpdateConflater conflater = new MovieUpdateConflater(movieProvider, new MovieUpdateConflater.Listener() {
+            @Override
+            public void onViewsUpdated(MovieViews views) {
+                refreshes.add(views);
+                first.countDown();
+                second.countDown();
+            }
+
+            @Override
+            public void onError(String error) {
+                fail(error);
+            }
+        }, main, scheduler, pool, 50, true);
+
+        main.submit(() -> movieProvider.applyChanges(Collections.singletonList(added(0, "First")), conflater)).get();
+        assertTrue(first.await(2, TimeUnit.SECONDS));
+        main.submit(() -> {
+            movieProvider.applyChanges(Collections.singletonList(added(1, "Second")), conflater);
+            movieProvider.applyChanges(Collections.singletonList(added(2, "Third")), conflater);
+        }).get();
+
+        assertTrue(second.await(2, TimeUnit.SECONDS));
+        Thread.sleep(150);
+        assertEquals(2, refreshes.size());
+        assertEquals(2, conflater.getRefreshCount());
+        assertEquals(3, refreshes.get(1).getSorted().size());
+        // Each refresh carries only the changes since the one before
+        assertEquals(1, refreshes.get(0).getChanges().size());
+        assertEquals(2, refreshes.get(1).getChanges().size());
+    }
+
+    @Test
+    public void testDerivedViews() throws Exception {
+        CountDownLatch refreshed = new CountDownLatch(1);
+        MovieUpdateConflater conflater = conflater(refreshed);
+
+        main.submit(() -> movieProvider.applyChanges(Arrays.asList(
+                added(0, "The Matrix"), added(1, "Barbie"), added(2, "Matrix Reloaded"), added(3, "Arrival")), conflater)).get();
+
+        assertTrue(refreshed.await(2, TimeUnit.SECONDS));
+        MovieViews views = refreshes.get(0);
+        List<Movie> sorted = views.getSorted();
+        assertEquals("Arrival", sorted.get(0).getTitle());
+        // The pool worked on copies, never on the instances the main thread updates
+        assertNotSame(movieProvider.getMovie("id3"), sorted.get(0));
+        assertEquals("The Matrix", sorted.get(3).getTitle());
+        assertEquals(2, views.search("matr").size());
+        assertEquals(1, views.search("BARB").size());
+        assertEquals(1990, views.getStatistics().getMinYear());
+        assertEquals(1993, views.getStatistics().getMaxYear());
+        assertEquals(Integer.valueOf(2), views.getStatistics().getGenreCounts().get("Drama"));
+    }
+
+    @Test
+    public void testOnlyChangedMoviesAreCopiedAgain() throws Exception {
+        CountDownLatch refreshed = new CountDownLatch(2);
+        MovieUpdateConflater conflater = conflater(refreshed);
+        main.submit(() -> movieProvider.applyChanges(Arrays.asList(
+                added(0, "The Matrix"), added(1, "Barbie"), added(2, "Arrival")), conflater)).get();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (refreshes.isEmpty())
+            assertTrue(System.nanoTime() < deadline);
+
+        main.submit(() -> movieProvider.applyChanges(Arrays.asList(
+                new MovieChange(MovieChange.Type.MODIFIED, "id1", "Barbie 2", "Comedy", 1991, null),
+                new MovieChange(MovieChange.Type.REMOVED, "id2", null, null, 0, null)), conflater)).get();
+
+        assertTrue(refreshed.await(2, TimeUnit.SECONDS));
+        List<Movie> before = refreshes.get(0).getSorted();
+        List<Movie> after = refreshes.get(1).getSorted();
+        assertEquals(2, after.size());
+        assertEquals("Barbie 2", after.get(0).getTitle());
+        assertNotSame(movieProvider.getMovie("id1"), after.get(0));
+        // The untouched movie is handed over as the copy made for the first refresh
+        assertSame(before.get(2), after.get(1));
+        assertEquals("Barbie", before.get(1).getTitle());
+    }
+
+    @Test
+    public void testChangesOnlyRefreshSkipsDerivedViews() throws Exception {
+        CountDownLatch refreshed = new CountDownLatch(1);
+        ExecutorService unusedPool = mock(ExecutorService.class);
+        MovieUpdateConflater conflater = new MovieUpdateConflater(movieProvider, new MovieUpdateConflater.Listener() {
+            @Override
+            public void onViewsUpdated(MovieViews views) {
+                refreshes.add(views);
+                refreshed.countDown();
+            }
+
+            @Override
+            public void onError(String error) {
+                fail(error);
+            }
+        }, main, scheduler, unusedPool, 50, false);
+
+        main.submit(() -> movieProvider.applyChanges(Arrays.asList(added(0, "The Matrix"), added(1, "Barbie")), conflater)).get();
+
+        assertTrue(refreshed.await(2, TimeUnit.SECONDS));
+        MovieViews views = refreshes.get(0);
+        assertFalse(views.hasDerivedViews());
+        assertEquals(2, views.getChanges().size());
+        verifyNoInteractions(unusedPool);
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.androidcicd;
+
+import static org.junit.Assert.*;
+
+import com.example.androidcicd.movie.Movie;
+import com.example.androidcicd.movie.MovieMutation;
+import com.example.androidcicd.movie.MutationLog;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+public class MutationLogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Movie movie(String id, String title) {
+        Movie movie = new Movie(title, "Drama", 2023);
+        movie.setId(id);
+        return movie;
+    }
+
+    @Test
+    public void testPendingMutationsSurviveReopen() throws IOException {
+        File file = new File(folder.getRoot(), "mutations.log");
+        MutationLog log = new MutationLog(file);
+        log.append(MovieMutation.set(movie("1", "Oppenheimer")));
+        MovieMutation second = log.append(MovieMutation.delete(movie("2", "Barbie")));
+        log.close();
+
+        MutationLog reopened = new MutationLog(file);
+        List<MovieMutation> pending = reopened.peek(10);
+
+        assertEquals(2, pending.size());
+        assertEquals(MovieMutation.Type.SET, pending.get(0).getType());
+        assertEquals("Oppenheimer", pending.get(0).getTitle());
+        assertEquals(MovieMutation.Type.DELETE, pending.get(1).getType());
+        assertEquals(second.getSequence(), pending.get(1).getSequence());
+        assertNull(pending.get(1).getTitle());
+    }
+
+    @Test
+    public void testAcknowledgedMutationsAreNotReplayed() throws IOException {
+        File file = new File(folder.getRoot(), "mutations.log");
+        MutationLog log = new MutationLog(file);
+        MovieMutation first = log.append(MovieMutation.set(movie("1", "Oppenheimer")));
+        log.append(MovieMutation.set(movie("2", "Barbie")));
+        log.acknowledge(first.getSequence());
+        log.close();
+
+        MutationLog reopened = new MutationLog(file);
+
+        assertEquals(1, reopened.size());
+        assertEquals("2", reopened.peek(10).get(0).getMovieId());
+        // Sequence numbers keep increasing across restarts
+        assertTrue(reopened.append(MovieMutation.set(movie("3", "Dune"))).getSequence() > first.getSequence() + 1);
+    }
+
+    @Test
+    public void testTornTailRecordIsIgnored() throws IOException {
+        File file = new File(folder.getRoot(), "mutations.log");
+        MutationLog log = new MutationLog(file);
+        log.append(MovieMutation.set(movie("1", "Oppenheimer")));
+        log.close();
+        // Simulate the process dying halfway through writing a record
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[]{1, 0, 0, 0});
+        }
+
+        MutationLog reopened = new MutationLog(file);
+        reopened.append(MovieMutation.set(movie("2", "Barbie")));
+        reopened.close();
+
+        assertEquals(2, new MutationLog(file).size());
+    }
+
+    @Test
+    public void testLogIsCompactedOnceMostlyAcknowledged() throws IOException {
+        File file = new File(folder.getRoot(), "mutations.log");
+        MutationLog log = new MutationLog(file);
+        MovieMutation last = null;
+        for (int i = 0; i < 200; i++)
+            last = log.append(MovieMutation.set(movie(String.valueOf(i), "Movie " + i)));
+        long fullLength = file.length();
+
+        log.acknowledge(last.getSequence());
+
+        assertEquals(0, log.size());
+        assertTrue(file.length() < fullLength / 10);
+    }
+
+    @Test
+    public void testPeekIsBoundedAndOrdered() throws IOException {
+        MutationLog log = new MutationLog(new File(folder.getRoot(), "mutations.log"));
+        for (int i = 0; i < 5; i++)
+            log.append(MovieMutation.set(movie(String.valueOf(i), "Movie " + i)));
+
+        List<MovieMutation> batch = log.peek(3);
+
+        assertEquals(3, batch.size());
+        assertEquals("0", batch.get(0).getMovieId());
+        assertEquals("2", batch.get(2).getMovieId());
+        assertEquals(5, log.size());
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.androidcicd;
+
+import static org.junit.Assert.*;
+
+import com.example.androidcicd.movie.Backoff;
+import com.example.androidcicd.movie.Movie;
+import com.example.androidcicd.movie.MovieMutation;
+import com.example.androidcicd.movie.MutationLog;
+import com.example.androidcicd.movie.MutationQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MutationQueueTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScheduledExecutorService scheduler;
+    private MutationLog log;
+    private final List<List<MovieMutation>> commits = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        log = new MutationLog(new File(folder.getRoot(), "mutations.log"));
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        scheduler.shutdown();
+        scheduler.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
+    private MovieMutation mutation(int i) {
+        Movie movie = new Movie("Movie " + i, "Drama", 2000 + i);
+        movie.setId(String.valueOf(i));
+        return MovieMutation.set(movie);
+    }
+
+    private Backoff fastBackoff() {
+        return new Backoff(1, 4, new Random(0));
+    }
+
+    // Waits for the drain a new queue starts with, so it cannot split a burst that follows
+    private void awaitStartupDrain() throws Exception {
+        // The first task runs the constructor's scheduleDrain(0); the second is queued behind the drain it scheduled
+        scheduler.submit(() -> {}).get();
+        scheduler.submit(() -> {}).get();
+    }
+
+    @Test
+    public void testBurstIsCommittedAsOneBatch() throws Exception {
+        CountDownLatch committed = new CountDownLatch(1);
+        MutationQueue queue = new MutationQueue(log, (batch, callback) -> {
+            commits.add(batch);
+            callback.onCommitted();
+            committed.countDown();
+        }, scheduler, fastBackoff());
+        awaitStartupDrain();
+
+        for (int i = 0; i < 20; i++)
+            queue.enqueue(mutation(i));
+
+        assertTrue(committed.await(2, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, commits.size());
+        assertEquals(20, commits.get(0).size());
+        assertEquals(0, queue.getQueueDepth());
+        assertEquals(20, queue.getCommittedCount());
+        assertTrue(queue.getDrainRate() > 0);
+    }
+
+    @Test
+    public void testFailedCommitIsRetried() throws InterruptedException {
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch committed = new CountDownLatch(1);
+        MutationQueue queue = new MutationQueue(log, (batch, callback) -> {
+            if (attempts.incrementAndGet() < 3) {
+                callback.onError("unavailable");
+            } else {
+                callback.onCommitted();
+                committed.countDown();
+            }
+        }, scheduler, fastBackoff());
+
+        queue.enqueue(mutation(1));
+
+        assertTrue(committed.await(2, TimeUnit.SECONDS));
+        assertEquals(3, attempts.get());
+        assertEquals(2, queue.getFailedCommitCount());
+        assertEquals("unavailable", queue.getLastError());
+    }
+
+    @Test
+    public void testThrowingCommitterIsRetried() throws InterruptedException {
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch committed = new CountDownLatch(1);
+        MutationQueue queue = new MutationQueue(log, (batch, callback) -> {
+            if (attempts.incrementAndGet() == 1)
+                throw new IllegalStateException("offline");
+            callback.onCommitted();
+            committed.countDown();
+        }, scheduler, fastBackoff());
+
+        queue.enqueue(mutation(1));
+
+        assertTrue(committed.await(2, TimeUnit.SECONDS));
+        assertEquals(2, attempts.get());
+        assertEquals(1, queue.getFailedCommitCount());
+        assertEquals("offline", queue.getLastError());
+    }
+
+    @Test
+    public void testRejectedMutationIsDroppedWithoutBlockingTheRest() throws Exception {
+        List<MovieMutation> rejected = new CopyOnWriteArrayList<>();
+        CountDownLatch drained = new CountDownLatch(1);
+
+        MutationQueue queue = new MutationQueue(log, (batch, callback) -> {
+            for (MovieMutation mutation : batch) {
+                if (mutation.getMovieId().equals("6")) {
+                    callback.onRejected("permission denied");
+                    return;
+                }
+            }
+            commits.add(batch);
+            callback.onCommitted();
+            if (log.size() == batch.size())
+                drained.countDown();
+        }, scheduler, fastBackoff());
+        queue.setRejectionListener((mutation, error) -> rejected.add(mutation));
+        awaitStartupDrain();
+        for (int i = 0; i < 10; i++)
+            queue.enqueue(mutation(i));
+
+        assertTrue(drained.await(2, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, rejected.size());
+        assertEquals("6", rejected.get(0).getMovieId());
+        assertEquals(1, queue.getRejectedCount());
+        assertEquals(0, queue.getFailedCommitCount());
+        assertEquals(9, queue.getCommittedCount());
+        assertEquals(0, queue.getQueueDepth());
+        // Once past the rejected mutation, batches are full size again
+        log.append(mutation(20));
+        log.append(mutation(21));
+        queue.enqueue(mutation(22));
+        Thread.sleep(200);
+        assertEquals(3, commits.get(commits.size() - 1).size());
+    }
+
+    @Test
+    public void testLeftoverMutationsAreDrainedOnStart() throws IOException, InterruptedException {
+        log.append(mutation(1));
+        log.append(mutation(2));
+        CountDownLatch committed = new CountDownLatch(1);
+
+        new MutationQueue(log, (batch, callback) -> {
+            commits.add(batch);
+            callback.onCommitted();
+            committed.countDown();
+        }, scheduler, fastBackoff());
+
+        assertTrue(committed.await(2, TimeUnit.SECONDS));
+        assertEquals(2, commits.get(0).size());
+    }
+
+    @Test
+    public void testBatchesAreCappedAtFirestoreLimit() throws IOException, InterruptedException {
+        for (int i = 0; i < MutationQueue.MAX_BATCH_SIZE + 10; i++)
+            log.append(mutation(i));
+        CountDownLatch committed = new CountDownLatch(2);
+
+        new MutationQueue(log, (batch, callback) -> {
+            commits.add(batch);
+            callback.onCommitted();
+            committed.countDown();
+        }, scheduler, fastBackoff());
+
+        assertTrue(committed.await(2, TimeUnit.SECONDS));
+        assertEquals(MutationQueue.MAX_BATCH_SIZE, commits.get(0).size());
+        assertEquals(10, commits.get(1).size());
+    }
+
+    @Test
+    public void testBackoffGrowsAndIsCapped() {
+        Backoff backoff = new Backoff(100, 1_000, new Random(42));
+
+        for (int attempt = 0; attempt < 70; attempt++) {
+            long delay = backoff.delayMillis(attempt);
+            long ceiling = Math.min(1_000, 100L << Math.min(attempt, 20));
+            assertTrue(delay >= ceiling / 2);
+            assertTrue(delay <= ceiling);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.androidcicd;
+
+import static org.junit.Assert.*;
+
+import com.example.androidcicd.poster.PosterDiskCache;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PosterDiskCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        // Stand-in poster server serving 100 bytes for any path
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            byte[] body = new byte[100];
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + path;
+    }
+
+    @Test
+    public void testFetchesOnceThenServesFromDisk() throws IOException {
+        PosterDiskCache cache = new PosterDiskCache(folder.newFolder("posters"), 1024);
+
+        File first = cache.getOrFetch(url("oppenheimer.jpg"));
+        File second = cache.getOrFetch(url("oppenheimer.jpg"));
+
+        assertEquals(first, second);
+        assertEquals(100, first.length());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testFetchesFromLocalFile() throws IOException {
+        File poster = folder.newFile("barbie.jpg");
+        try (FileOutputStream out = new FileOutputStream(poster)) {
+            out.write(new byte[42]);
+        }
+        PosterDiskCache cache = new PosterDiskCache(folder.newFolder("posters"), 1024);
+
+        File cached = cache.getOrFetch(poster.toURI().toString());
+
+        assertNotEquals(poster, cached);
+        assertEquals(42, cached.length());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws IOException {
+        PosterDiskCache cache = new PosterDiskCache(folder.newFolder("posters"), 250);
+
+        cache.getOrFetch(url("a.jpg"));
+        cache.getOrFetch(url("b.jpg"));
+        cache.get(url("a.jpg")); // a is now more recent than b
+        cache.getOrFetch(url("c.jpg"));
+
+        assertNotNull(cache.get(url("a.jpg")));
+        assertNull(cache.get(url("b.jpg")));
+        assertNotNull(cache.get(url("c.jpg")));
+        assertEquals(200, cache.size());
+    }
+
+    @Test
+    public void testIndexSurvivesReopen() throws IOException {
+        File directory = folder.newFolder("posters");
+        new PosterDiskCache(directory, 1024).getOrFetch(url("a.jpg"));
+
+        PosterDiskCache reopened = new PosterDiskCache(directory, 1024);
+
+        assertNotNull(reopened.get(url("a.jpg")));
+        assertEquals(100, reopened.size());
+        assertEquals(1, Files.list(directory.toPath()).count());
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingLocalFileFails() throws IOException {
+        PosterDiskCache cache = new PosterDiskCache(folder.newFolder("posters"), 1024);
+        cache.getOrFetch(new File(folder.getRoot(), "missing.jpg").toURI().toString());
+    }
+}
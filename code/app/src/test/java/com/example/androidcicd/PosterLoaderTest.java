@@ -0,0 +1,138 @@
+package com.example.androidcicd;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.androidcicd.poster.PosterDiskCache;
+import com.example.androidcicd.poster.PosterLoader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class PosterLoaderTest {
+    private ExecutorService executor;
+    private PosterDiskCache diskCache;
+    // Runnables posted to the main thread, run by the test when it chooses
+    private final BlockingQueue<Runnable> mainThread = new LinkedBlockingQueue<>();
+    private final Map<String, Bitmap> bitmaps = new HashMap<>();
+    private PosterLoader posterLoader;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws IOException {
+        executor = Executors.newFixedThreadPool(2);
+        diskCache = mock(PosterDiskCache.class);
+        when(diskCache.getOrFetch(anyString())).thenAnswer(invocation -> new File((String) invocation.getArgument(0)));
+        posterLoader = new PosterLoader(() -> diskCache, mock(LruCache.class), executor, mainThread::add,
+                (file, width, height) -> bitmaps.computeIfAbsent(file.getPath(), path -> mock(Bitmap.class)), 100, 150);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
+    // A row's poster view, keeping its tags like the real one
+    private static ImageView imageView() {
+        ImageView view = mock(ImageView.class);
+        Map<Integer, Object> tags = new HashMap<>();
+        doAnswer(invocation -> tags.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(view).setTag(anyInt(), any());
+        when(view.getTag(anyInt())).thenAnswer(invocation -> tags.get((Integer) invocation.getArgument(0)));
+        return view;
+    }
+
+    @Test
+    public void testCalculateInSampleSize() {
+        assertEquals(1, PosterLoader.calculateInSampleSize(100, 150, 100, 150));
+        assertEquals(4, PosterLoader.calculateInSampleSize(400, 600, 100, 150));
+        // Never below the requested size, so 8 rather than 16
+        assertEquals(8, PosterLoader.calculateInSampleSize(1000, 1500, 100, 150));
+        // The smaller side decides
+        assertEquals(2, PosterLoader.calculateInSampleSize(2000, 300, 100, 150));
+        assertEquals(1, PosterLoader.calculateInSampleSize(50, 50, 100, 150));
+        assertEquals(1, PosterLoader.calculateInSampleSize(0, 0, 100, 150));
+        assertEquals(1, PosterLoader.calculateInSampleSize(400, 600, 0, 0));
+    }
+
+    @Test
+    public void testRecycledRowCancelsPendingLoad() throws Exception {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        when(diskCache.getOrFetch("slow.jpg")).thenAnswer(invocation -> {
+            fetching.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                // Like a real download, leave the thread marked as interrupted
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Poster request cancelled");
+        });
+        ImageView view = imageView();
+
+        posterLoader.load("slow.jpg", view);
+        assertTrue(fetching.await(1, TimeUnit.SECONDS));
+        // The row is recycled for another movie
+        posterLoader.load("fast.jpg", view);
+
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        Runnable bind = mainThread.poll(1, TimeUnit.SECONDS);
+        assertNotNull(bind);
+        bind.run();
+        verify(view).setImageBitmap(bitmaps.get("fast.jpg"));
+        verify(view, times(1)).setImageBitmap(any());
+        assertNull(mainThread.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testFinishedLoadIsNotBoundToRecycledRow() throws Exception {
+        ImageView view = imageView();
+
+        posterLoader.load("first.jpg", view);
+        // Decoded, but the bind is still waiting for the main thread when the row is recycled
+        Runnable staleBind = mainThread.poll(1, TimeUnit.SECONDS);
+        assertNotNull(staleBind);
+        posterLoader.load("second.jpg", view);
+        staleBind.run();
+        verify(view, never()).setImageBitmap(any());
+
+        Runnable bind = mainThread.poll(1, TimeUnit.SECONDS);
+        assertNotNull(bind);
+        bind.run();
+        verify(view).setImageBitmap(bitmaps.get("second.jpg"));
+        verify(view, times(1)).setImageBitmap(any());
+    }
+
+    @Test
+    public void testEmptyUrlClearsRow() throws Exception {
+        ImageView view = imageView();
+
+        posterLoader.load("first.jpg", view);
+        posterLoader.load(null, view);
+        Runnable staleBind = mainThread.poll(1, TimeUnit.SECONDS);
+        if (staleBind != null)
+            staleBind.run();
+
+        verify(view, never()).setImageBitmap(any());
+        verify(view, atLeastOnce()).setImageDrawable(null);
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.androidcicd;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import com.example.androidcicd.movie.Movie;
+import com.example.androidcicd.movie.MovieChange;
+import com.example.androidcicd.movie.MovieProvider;
+import com.example.androidcicd.movie.SnapshotRecorder;
+import com.example.androidcicd.movie.SnapshotRecording;
+import com.example.androidcicd.movie.SnapshotReplayer;
+import com.google.firebase.firestore.*;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class SnapshotReplayTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MovieProvider movieProvider;
+    private MovieProvider.DataStatus dataStatus;
+
+    @Before
+    public void setUp() {
+        FirebaseFirestore mockFirestore = mock(FirebaseFirestore.class);
+        when(mockFirestore.collection("movies")).thenReturn(mock(CollectionReference.class));
+        MovieProvider.setInstanceForTesting(mockFirestore);
+        movieProvider = MovieProvider.getInstance(mockFirestore);
+        dataStatus = mock(MovieProvider.DataStatus.class);
+    }
+
+    private static MovieChange change(MovieChange.Type type, int i) {
+        return new MovieChange(type, "id" + i, "Movie " + i, "Drama", 1950 + i % 70, null);
+    }
+
+    // An import of count movies followed by edits and deletes, one frame every 10ms
+    private File recordSyntheticImport(int count) throws IOException {
+        File file = folder.newFile("import.rec");
+        SnapshotRecording recording = new SnapshotRecording(file);
+        long elapsed = 0;
+        for (int start = 0; start < count; start += 100) {
+            List<MovieChange> changes = new ArrayList<>();
+            for (int i = start; i < Math.min(count, start + 100); i++)
+                changes.add(change(MovieChange.Type.ADDED, i));
+            recording.write(elapsed += 10, changes);
+        }
+        recording.write(elapsed += 10, Collections.singletonList(
+                new MovieChange(MovieChange.Type.MODIFIED, "id0", "Renamed", "Comedy", 2001, "file:///poster.jpg")));
+        recording.write(elapsed + 10, Arrays.asList(change(MovieChange.Type.REMOVED, 1), change(MovieChange.Type.REMOVED, 2)));
+        recording.close();
+        return file;
+    }
+
+    @Test
+    public void testReplayRebuildsFinalState() throws Exception {
+        SnapshotReplayer replayer = new SnapshotReplayer(recordSyntheticImport(1_000));
+
+        replayer.replay(movieProvider, 0, dataStatus);
+
+        assertEquals(12, replayer.getFrameCount());
+        assertEquals(1_003, replayer.getChangeCount());
+        assertEquals(998, movieProvider.getMovies().size());
+        Movie renamed = movieProvider.getMovies().get(0);
+        assertEquals("Renamed", renamed.getTitle());
+        assertEquals("file:///poster.jpg", renamed.getPosterUrl());
+        verify(dataStatus, times(12)).onDataUpdated();
+    }
+
+    @Test
+    public void testRecordingIsCompact() throws IOException {
+        File file = recordSyntheticImport(10_000);
+
+        // Well under the 30+ bytes each uncompressed change would take
+        assertTrue("Recording is " + file.length() + " bytes", file.length() < 10_000 * 10);
+    }
+
+    // Time only moves when replay sleeps, and by exactly as long as it asks
+    private static class FakeClock implements SnapshotReplayer.Clock {
+        private long nanos;
+        private final List<Long> appliedAt = new ArrayList<>();
+
+        @Override
+        public long nanoTime() {
+            return nanos;
+        }
+
+        @Override
+        public void sleep(long nanos) {
+            this.nanos += nanos;
+        }
+    }
+
+    @Test
+    public void testAcceleratedReplayKeepsRelativeTiming() throws Exception {
+        FakeClock clock = new FakeClock();
+        SnapshotReplayer replayer = new SnapshotReplayer(recordSyntheticImport(1_000), clock);
+        doAnswer(invocation -> clock.appliedAt.add(clock.nanos)).when(dataStatus).onDataUpdated();
+
+        replayer.replay(movieProvider, 4, dataStatus);
+
+        // 120ms of recorded traffic played four times faster, one frame every 2.5ms
+        assertEquals(12, clock.appliedAt.size());
+        for (int i = 0; i < 12; i++)
+            assertEquals((i + 1) * 2_500_000L, (long) clock.appliedAt.get(i));
+    }
+
+    @Test
+    public void testUnthrottledReplayNeverWaits() throws Exception {
+        FakeClock clock = new FakeClock();
+        SnapshotReplayer replayer = new SnapshotReplayer(recordSyntheticImport(1_000), clock);
+
+        replayer.replay(movieProvider, 0, dataStatus);
+
+        assertEquals(0, clock.nanos);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRecorderCapturesSnapshotChanges() throws IOException {
+        Query query = mock(Query.class);
+        ListenerRegistration registration = mock(ListenerRegistration.class);
+        ArgumentCaptor<EventListener<QuerySnapshot>> listener = ArgumentCaptor.forClass(EventListener.class);
+        when(query.addSnapshotListener(listener.capture())).thenReturn(registration);
+
+        QueryDocumentSnapshot document = mock(QueryDocumentSnapshot.class);
+        when(document.getId()).thenReturn("abc");
+        when(document.getString("title")).thenReturn("Oppenheimer");
+        when(document.getString("genre")).thenReturn("Thriller/Historical Drama");
+        when(document.getLong("year")).thenReturn(2023L);
+        DocumentChange documentChange = mock(DocumentChange.class);
+        when(documentChange.getType()).thenReturn(DocumentChange.Type.ADDED);
+        when(documentChange.getDocument()).thenReturn(document);
+        QuerySnapshot snapshot = mock(QuerySnapshot.class);
+        when(snapshot.getDocumentChanges()).thenReturn(Collections.singletonList(documentChange));
+
+        File file = folder.newFile("emulator.rec");
+        SnapshotRecorder recorder = new SnapshotRecorder(file);
+        recorder.start(query);
+        listener.getValue().onEvent(snapshot, null);
+        recorder.stop();
+
+        verify(registration).remove();
+        List<SnapshotRecording.Frame> frames = SnapshotRecording.read(file);
+        assertEquals(1, frames.size());
+        MovieChange change = frames.get(0).getChanges().get(0);
+        assertEquals(MovieChange.Type.ADDED, change.getType());
+        assertEquals("abc", change.getId());
+        assertEquals("Oppenheimer", change.getTitle());
+        assertEquals(2023, change.getYear());
+        assertNull(change.getPosterUrl());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRecorderReportsListenerError() throws IOException {
+        Query query = mock(Query.class);
+        ArgumentCaptor<EventListener<QuerySnapshot>> listener = ArgumentCaptor.forClass(EventListener.class);
+        when(query.addSnapshotListener(listener.capture())).thenReturn(mock(ListenerRegistration.class));
+
+        SnapshotRecorder recorder = new SnapshotRecorder(folder.newFile("denied.rec"));
+        recorder.start(query);
+        listener.getValue().onEvent(null, new FirebaseFirestoreException("Missing or insufficient permissions",
+                FirebaseFirestoreException.Code.PERMISSION_DENIED));
+
+        try {
+            recorder.stop();
+            fail("Listener error was dropped");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("insufficient permissions"));
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.androidcicd;
+
+import static org.junit.Assert.*;
+
+import com.example.androidcicd.movie.TitleSimilarityIndex;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class TitleSimilarityIndexTest {
+    private static final String[] WORDS = {
+            "night", "day", "star", "war", "love", "dark", "city", "river", "ghost", "king",
+            "queen", "lost", "last", "first", "blue", "red", "storm", "fire", "ice", "shadow",
+            "empire", "dream", "road", "house", "island", "secret", "game", "heart", "moon", "sun"
+    };
+    private static final int QUERIES = 2_000;
+
+    @Test
+    public void testNormalizeFoldsCommonVariants() {
+        assertEquals("matrix", TitleSimilarityIndex.normalize("The Matrix"));
+        assertEquals("matrix", TitleSimilarityIndex.normalize("the matrix "));
+        assertEquals("matrix", TitleSimilarityIndex.normalize("Matrix, The"));
+        assertEquals("amelie", TitleSimilarityIndex.normalize("Amélie"));
+        assertEquals("wall e", TitleSimilarityIndex.normalize("WALL·E"));
+    }
+
+    @Test
+    public void testFindsVariantsOfExistingTitle() {
+        TitleSimilarityIndex index = new TitleSimilarityIndex();
+        index.add("1", "The Matrix");
+        index.add("2", "Oppenheimer");
+
+        for (String variant : new String[]{"the matrix ", "Matrix, The", "The Matrix!"}) {
+            List<TitleSimilarityIndex.Match> matches = index.findSimilar(variant);
+            assertEquals(variant, 1, matches.size());
+            assertEquals("1", matches.get(0).getId());
+            assertEquals(1.0, matches.get(0).getSimilarity(), 0.0);
+        }
+        assertTrue(index.findSimilar("Barbie").isEmpty());
+    }
+
+    @Test
+    public void testFindsNearMisses() {
+        TitleSimilarityIndex index = new TitleSimilarityIndex();
+        index.add("1", "Harry Potter and the Philosopher's Stone");
+
+        List<TitleSimilarityIndex.Match> matches = index.findSimilar("Harry Potter and the Philosophers Stone");
+
+        assertEquals(1, matches.size());
+        assertEquals("Harry Potter and the Philosopher's Stone", matches.get(0).getTitle());
+    }
+
+    @Test
+    public void testUpdateAndRemoveAreIncremental() {
+        TitleSimilarityIndex index = new TitleSimilarityIndex();
+        index.add("1", "The Matrix");
+        index.add("1", "Inception");
+
+        assertTrue(index.findSimilar("The Matrix").isEmpty());
+        assertEquals(1, index.findSimilar("inception").size());
+
+        index.remove("1");
+        assertTrue(index.findSimilar("Inception").isEmpty());
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testFindsTitlesAmongOneHundredThousand() {
+        TitleSimilarityIndex index = new TitleSimilarityIndex();
+        Random random = new Random(0);
+        String[] titles = new String[100_000];
+        for (int i = 0; i < titles.length; i++) {
+            titles[i] = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]
+                    + " " + WORDS[random.nextInt(WORDS.length)] + " " + i;
+            index.add(String.valueOf(i), titles[i]);
+        }
+
+        for (int i = 0; i < 1_000; i++) {
+            int id = random.nextInt(titles.length);
+            List<TitleSimilarityIndex.Match> matches = index.findSimilar(titles[id].toUpperCase());
+            assertFalse(matches.isEmpty());
+            assertEquals(String.valueOf(id), matches.get(0).getId());
+        }
+
+        // Around 0.1 ms each once warmed up, though these titles share far more words than real ones
+        long start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++)
+            index.findSimilar(titles[random.nextInt(titles.length)]);
+        double averageMillis = (System.nanoTime() - start) / 1e6 / QUERIES;
+        assertTrue(averageMillis + " ms per query", averageMillis < 1.0);
+    }
+
+    @Test
+    public void testFindsMostVariantsAboveThreshold() {
+        Random random = new Random(1);
+        int variants = 0;
+        int found = 0;
+        for (int i = 0; i < 2_000; i++) {
+            String title = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]
+                    + " " + WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+            String variant = misspell(title, random);
+            // Clearly similar pairs only; right at the threshold the estimate is a coin flip
+            if (trigramSimilarity(title, variant) < 0.7)
+                continue;
+            TitleSimilarityIndex index = new TitleSimilarityIndex();
+            index.add("1", title);
+            variants++;
+            if (!index.findSimilar(variant).isEmpty())
+                found++;
+        }
+
+        assertTrue(variants > 500);
+        assertTrue(found + " of " + variants + " variants found", found >= 0.97 * variants);
+    }
+
+    // Up to four typos: dropped, inserted or replaced letters
+    private static String misspell(String title, Random random) {
+        StringBuilder variant = new StringBuilder(title);
+        int typos = 1 + random.nextInt(4);
+        for (int i = 0; i < typos; i++) {
+            int at = random.nextInt(variant.length());
+            char letter = (char) ('a' + random.nextInt(26));
+            switch (random.nextInt(3)) {
+                case 0:
+                    variant.deleteCharAt(at);
+                    break;
+                case 1:
+                    variant.insert(at, letter);
+                    break;
+                default:
+                    variant.setCharAt(at, letter);
+            }
+        }
+        return variant.toString();
+    }
+
+    // Exact Jaccard similarity of the titles' trigram sets, which the index estimates
+    private static double trigramSimilarity(String a, String b) {
+        Set<String> left = trigrams(TitleSimilarityIndex.normalize(a));
+        Set<String> right = trigrams(TitleSimilarityIndex.normalize(b));
+        Set<String> union = new HashSet<>(left);
+        union.addAll(right);
+        left.retainAll(right);
+        return (double) left.size() / union.size();
+    }
+
+    private static Set<String> trigrams(String normalized) {
+        Set<String> trigrams = new HashSet<>();
+        String padded = " " + normalized + " ";
+        for (int start = 0; start + 3 <= padded.length(); start++)
+            trigrams.add(padded.substring(start, start + 3));
+        return trigrams;
+    }
+}